@@ -2,72 +2,127 @@ package org.libbootstrapiotdevice;
 
 import android.support.annotation.NonNull;
 
+import org.libbootstrapiotdevice.network.BootstrapCore;
+
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
  * Bootstrap data that will be send to a BS device. This can be used as singleton,
  * to allow activities to add additional data.
+ * <p/>
+ * The data is serialized once after every change into an immutable {@see Payload}, which
+ * is copied into every bootstrap packet.
  */
 public class BootstrapData {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     static private BootstrapData i = new BootstrapData();
     Map<String, String> additional = new TreeMap<>();
     private String bst_ssid = null;
     private String bst_pwd = null;
+    // Serialized data, null after a change
+    private Payload payload = null;
+
+    /**
+     * The serialized bootstrap data: ssid, password and the additional key/value pairs,
+     * UTF-8 encoded and zero terminated. Immutable.
+     */
+    public static final class Payload {
+        private final byte[] data;
+
+        private Payload(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * @return Return the size in bytes, at most BST_STORAGE_RAM_SIZE.
+         */
+        public int size() {
+            return data.length;
+        }
+
+        public void writeTo(@NonNull ByteArrayOutputStream outputStream) {
+            outputStream.write(data, 0, data.length);
+        }
+    }
 
     public static BootstrapData instance() {
         return i;
     }
 
-    public void setWifiData(String bst_ssid, String bst_pwd) {
+    public synchronized void setWifiData(String bst_ssid, String bst_pwd) {
         this.bst_ssid = bst_ssid;
         this.bst_pwd = bst_pwd;
+        payload = null;
     }
 
-    public void setWifiData(WirelessNetwork network) {
+    public synchronized void setWifiData(WirelessNetwork network) {
         this.bst_ssid = network.ssid;
         this.bst_pwd = network.pwd;
+        payload = null;
     }
 
 
-    public void addAdditionalData(String key, String value) {
+    public synchronized void addAdditionalData(String key, String value) {
         if (key == null || value == null)
             throw new RuntimeException("Empty value not allowed");
         additional.put(key, value);
+        payload = null;
     }
 
-    public int addDataToStream(@NonNull ByteArrayOutputStream outputStream) {
+    /**
+     * @return Return the serialized data. The data is only serialized again after a change.
+     * @throws RuntimeException If no ssid is set or the data does not fit into the
+     *                          BST_STORAGE_RAM_SIZE bytes of the device.
+     */
+    @NonNull
+    public synchronized Payload getPayload() {
+        if (payload != null)
+            return payload;
+
         if (bst_ssid == null)
             throw new RuntimeException("bst_ssid may not be empty!");
 
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(BootstrapCore.BST_STORAGE_RAM_SIZE);
         byte[] d;
-        d = bst_ssid.getBytes();
+        d = bst_ssid.getBytes(UTF8);
         outputStream.write(d, 0, d.length);
         outputStream.write(0);
-        int written = d.length + 1;
 
         if (bst_pwd != null) {
-            d = bst_pwd.getBytes();
+            d = bst_pwd.getBytes(UTF8);
             outputStream.write(d, 0, d.length);
-            outputStream.write(0);
-            written += d.length;
-        } else
-            outputStream.write(0);
-        ++written;
+        }
+        outputStream.write(0);
 
         for (Map.Entry<String, String> entry : additional.entrySet()) {
-            d = entry.getKey().replace('\t', ' ').getBytes();
+            d = entry.getKey().replace('\t', ' ').getBytes(UTF8);
             outputStream.write(d, 0, d.length);
             outputStream.write('\t');
-            written += d.length + 1;
-            d = entry.getValue().replace('\t', ' ').getBytes();
+            d = entry.getValue().replace('\t', ' ').getBytes(UTF8);
             outputStream.write(d, 0, d.length);
             outputStream.write('\t');
-            written += d.length + 1;
         }
         outputStream.write('\0');
-        ++written;
-        return written;
+
+        if (outputStream.size() > BootstrapCore.BST_STORAGE_RAM_SIZE)
+            throw new RuntimeException("Bootstrap data too large! " + outputStream.size() +
+                    " bytes, the device stores " + BootstrapCore.BST_STORAGE_RAM_SIZE + " bytes.");
+
+        payload = new Payload(outputStream.toByteArray());
+        return payload;
+    }
+
+    /**
+     * Write the serialized data to the given stream.
+     *
+     * @return Return the amount of written bytes.
+     */
+    public int addDataToStream(@NonNull ByteArrayOutputStream outputStream) {
+        Payload payload = getPayload();
+        payload.writeTo(outputStream);
+        return payload.size();
     }
 }
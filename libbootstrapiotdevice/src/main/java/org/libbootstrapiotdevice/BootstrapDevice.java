@@ -2,11 +2,16 @@ package org.libbootstrapiotdevice;
 
 import android.support.annotation.NonNull;
 
+import org.libbootstrapiotdevice.network.BootstrapCore;
 import org.libbootstrapiotdevice.network.DeviceState;
-import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
+import org.libbootstrapiotdevice.network.PacketDecoder;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzEngine;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzFactory;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzKeyCache;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -23,11 +28,25 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
     private DeviceMode mode;
     private DeviceState state;
     private int external_confirmation_state;
-    private SpritzState crypto = new SpritzState();
+    private SpritzEngine crypto = SpritzFactory.newEngine();
+    private SpritzKeyCache cryptoCache = new SpritzKeyCache(1);
     private boolean selected = true;
     private WirelessNetwork wirelessNetwork = null;
     private String errorMessage = "";
     private long lastSeen = 0;
+    // Raw fields of the last response. Only changed fields are copied/decoded again.
+    private byte[] uid_bytes;
+    private byte[] name_or_log_bytes;
+    private boolean name_or_log_is_name;
+    private byte[] raw_networks = new byte[0];
+    private int raw_networks_entries = 0;
+    private int raw_current_network = -1;
+    private boolean raw_networks_valid = false;
+    private boolean networks_decoded = true;
+    // Nonce and uid of the last response, the known beginning of the next one.
+    private byte[] response_prefix;
+    // Which key the device used for the last response
+    private boolean last_key_unbound;
 
     /**
      * Links an address to a device, every other field is invalid.
@@ -47,7 +66,7 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
         this.device_name = device_name;
     }
 
-    public void updateState(String uid,
+    public synchronized void updateState(String uid,
                             @NonNull DeviceMode mode,
                             @NonNull DeviceState state,
                             List<WirelessNetwork> reachableNetworks,
@@ -58,13 +77,114 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
         this.state = state;
         this.external_confirmation_state = external_confirmation_state;
         if (reachableNetworks != null)
-            this.reachableNetworks = reachableNetworks;
+            setReachableNetworks(reachableNetworks);
         this.device_nonce = device_nonce;
         this.crypto_key = crypto_key;
         this.crypto_key_len = crypto_key_len;
         updateLastSeen();
     }
 
+    /**
+     * Update the device with a parsed response. This is called for every response on the
+     * receive path, therefore fields are only copied if they changed and the wifi list is
+     * decoded lazily in getReachableNetworks()/getWirelessNetwork(). A response that equals
+     * the last one does not allocate.
+     * <p/>
+     * Synchronized with {@see #cipherEncrypt(byte[], int)}: A bootstrap packet encrypted on
+     * another thread never sees the nonce or the key half updated.
+     *
+     * @param packet The decoder with a successfully parsed response.
+     */
+    public synchronized void updateState(@NonNull PacketDecoder packet,
+                            @NonNull DeviceMode mode,
+                            @NonNull DeviceState state,
+                            @NonNull byte[] crypto_key, int crypto_key_len) {
+        byte[] data = packet.getData();
+
+        int offset = packet.getUidOffset();
+        if (!PacketDecoder.regionEquals(uid_bytes, data, offset, BootstrapCore.BST_UID_SIZE)) {
+            uid_bytes = Arrays.copyOfRange(data, offset, offset + BootstrapCore.BST_UID_SIZE);
+            this.uid = new String(uid_bytes);
+        }
+
+        if (device_nonce == null || device_nonce.length != BootstrapCore.BST_NONCE_SIZE)
+            device_nonce = new byte[BootstrapCore.BST_NONCE_SIZE];
+        System.arraycopy(data, packet.getNonceOffset(), device_nonce, 0, BootstrapCore.BST_NONCE_SIZE);
+
+        if (response_prefix == null)
+            response_prefix = new byte[BootstrapCore.BST_NONCE_SIZE + BootstrapCore.BST_UID_SIZE];
+        System.arraycopy(data, packet.getNonceOffset(), response_prefix, 0, BootstrapCore.BST_NONCE_SIZE);
+        System.arraycopy(data, packet.getUidOffset(), response_prefix, BootstrapCore.BST_NONCE_SIZE, BootstrapCore.BST_UID_SIZE);
+        last_key_unbound = mode == DeviceMode.Unbound;
+
+        boolean is_name = state == DeviceState.STATE_OK;
+        offset = packet.getNameOffset();
+        int len = packet.getNameLength();
+        if (is_name != name_or_log_is_name || !PacketDecoder.regionEquals(name_or_log_bytes, data, offset, len)) {
+            name_or_log_bytes = Arrays.copyOfRange(data, offset, offset + len);
+            name_or_log_is_name = is_name;
+            if (is_name)
+                setName(new String(name_or_log_bytes));
+            else
+                setErrorMessage(new String(name_or_log_bytes));
+        }
+
+        setRawNetworks(data, packet.getWifiListOffset(), packet.getWifiListLength(),
+                packet.getWifiListEntries(), packet.getCurrentNetworkEntry());
+
+        this.mode = mode;
+        this.state = state;
+        this.external_confirmation_state = packet.getExternalConfirmationState();
+        this.crypto_key = crypto_key;
+        this.crypto_key_len = crypto_key_len;
+        updateLastSeen();
+    }
+
+    private synchronized void setRawNetworks(byte[] data, int offset, int len, int entries, int current) {
+        if (raw_networks_valid && raw_networks_entries == entries && raw_current_network == current &&
+                PacketDecoder.regionEquals(raw_networks, data, offset, len))
+            return;
+
+        if (raw_networks.length != len)
+            raw_networks = new byte[len];
+        System.arraycopy(data, offset, raw_networks, 0, len);
+        raw_networks_entries = entries;
+        raw_current_network = current;
+        raw_networks_valid = true;
+        networks_decoded = false;
+    }
+
+    private synchronized void decodeNetworks() {
+        if (networks_decoded)
+            return;
+        reachableNetworks = WirelessNetwork.decodeList(raw_networks, 0, raw_networks.length, raw_networks_entries);
+        wirelessNetwork = raw_current_network >= 0 && raw_current_network < reachableNetworks.size() ?
+                reachableNetworks.get(raw_current_network) : null;
+        networks_decoded = true;
+    }
+
+    private synchronized void setReachableNetworks(List<WirelessNetwork> reachableNetworks) {
+        this.reachableNetworks = reachableNetworks;
+        raw_networks_valid = false;
+        networks_decoded = true;
+    }
+
+    /**
+     * @return Return the decrypted nonce and uid of the last response or null if the device
+     * did not send an encrypted response yet. Responses of a device start with these bytes
+     * until the device reboots.
+     */
+    public byte[] getResponsePrefix() {
+        return response_prefix;
+    }
+
+    /**
+     * @return Return true if the last response was encrypted with the unbound key.
+     */
+    public boolean isLastKeyUnbound() {
+        return last_key_unbound;
+    }
+
     public boolean isAlreadyBound() {
         return mode == DeviceMode.ErrorDeviceAlreadyBound;
     }
@@ -73,9 +193,12 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
         return uid.length()>0;
     }
 
+    /**
+     * Devices are ordered by their uid, consistent with equals().
+     */
     @Override
     public int compareTo(@NonNull BootstrapDevice bootstrapDevice) {
-        return equals(bootstrapDevice) ? 0 : 1;
+        return uid.compareTo(bootstrapDevice.uid);
     }
 
     @Override
@@ -85,6 +208,11 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
         return other.uid.equals(uid);
     }
 
+    @Override
+    public int hashCode() {
+        return uid.hashCode();
+    }
+
     public boolean isSelected() {
         return selected;
     }
@@ -93,13 +221,15 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
         this.selected = selected;
     }
 
-    public void cipherEncrypt(byte[] in_out, int offset) {
-        crypto.cipherInit(crypto_key, 0, crypto_key_len, device_nonce, 0, device_nonce.length);
+    // Synchronized: Bootstrap packets may be encrypted on several threads (see
+    // BootstrapCore#setEncryptExecutor) while responses update the nonce and the key
+    public synchronized void cipherEncrypt(byte[] in_out, int offset) {
+        cryptoCache.cipherInit(crypto, crypto_key, crypto_key_len, device_nonce, device_nonce.length);
         crypto.cipherEncrypt(in_out, offset, in_out.length - offset, in_out, offset);
     }
 
-    public void cipherDecrypt(byte[] in_out, int offset) {
-        crypto.cipherInit(crypto_key, 0, crypto_key_len, device_nonce, 0, device_nonce.length);
+    public synchronized void cipherDecrypt(byte[] in_out, int offset) {
+        cryptoCache.cipherInit(crypto, crypto_key, crypto_key_len, device_nonce, device_nonce.length);
         crypto.cipherDecrypt(in_out, offset, in_out.length - offset, in_out, offset);
     }
 
@@ -116,14 +246,17 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
     }
 
     public List<WirelessNetwork> getReachableNetworks() {
+        decodeNetworks();
         return reachableNetworks;
     }
 
     public WirelessNetwork getWirelessNetwork() {
+        decodeNetworks();
         return wirelessNetwork;
     }
 
-    public void setWirelessNetwork(WirelessNetwork wirelessNetwork) {
+    public synchronized void setWirelessNetwork(WirelessNetwork wirelessNetwork) {
+        decodeNetworks();
         this.wirelessNetwork = wirelessNetwork;
     }
 
@@ -140,9 +273,13 @@ public class BootstrapDevice implements Comparable<BootstrapDevice> {
     }
 
     public void updateLastSeen() {
-        this.lastSeen = System.currentTimeMillis();
+        this.lastSeen = System.nanoTime() / 1000000;
     }
 
+    /**
+     * @return Return the time of the last response in milliseconds of a monotonic clock,
+     * not a wall clock time. Only differences of these values are meaningful.
+     */
     public long getLastSeen() {
         return lastSeen;
     }
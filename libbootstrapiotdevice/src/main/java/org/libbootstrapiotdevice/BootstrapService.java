@@ -24,17 +24,24 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.libbootstrapiotdevice.network.BootstrapCore;
+import org.libbootstrapiotdevice.network.EntropySource;
+import org.libbootstrapiotdevice.network.ReceiveWorkerPool;
+import org.libbootstrapiotdevice.network.UDPChannelSendReceive;
 import org.libbootstrapiotdevice.network.UDPMulticastSendReceive;
 import org.libbootstrapiotdevice.network.WifiChangedObserverAndroid4;
 import org.libbootstrapiotdevice.network.WifiChangedObserverAndroid5;
 import org.libbootstrapiotdevice.network.WifiUtils;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.security.SecureRandom;
 import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import cc.mvdan.accesspoint.WifiApControl;
 
@@ -65,7 +72,13 @@ public class BootstrapService extends Service implements Handler.Callback {
 
     // Bootstrap logic core and network
     private BootstrapCore bootstrapCore;
+    // Decrypts received packets off the network thread
+    private ReceiveWorkerPool receivePool;
+    private ExecutorService encryptPool;
     private UDPMulticastSendReceive udpNetwork;
+    // Alternative network, used instead of udpNetwork if R.bool.udp_channel_transport is set.
+    private UDPChannelSendReceive udpChannel;
+    private WifiManager.MulticastLock multicastLock;
     private String access_point_key;
     private String access_point_ssid;
     private int orig_networkId;
@@ -160,9 +173,12 @@ public class BootstrapService extends Service implements Handler.Callback {
                     Log.wtf("WIFIIP", "Unable to NetworkInterface.getNetworkInterfaces()");
                 }
 
-                udpNetwork.start(wifiManager,
-                        current_network, current_interface,
-                        BootstrapCore.RECEIVE_PORT, bootstrapCore);
+                if (udpChannel != null)
+                    startChannel(current_network, current_interface);
+                else
+                    udpNetwork.start(wifiManager,
+                            current_network, current_interface,
+                            BootstrapCore.RECEIVE_PORT, receivePool);
             }
             response.callback.wifiSuccess(connected);
         }
@@ -170,6 +186,21 @@ public class BootstrapService extends Service implements Handler.Callback {
         return true;
     }
 
+    private void startChannel(@Nullable Network network, @Nullable NetworkInterface networkInterface) {
+        if (multicastLock == null) {
+            multicastLock = wifiManager.createMulticastLock("bootstrapCommunication");
+            multicastLock.acquire();
+        }
+        if (!udpChannel.start(networkInterface, BootstrapCore.RECEIVE_PORT, receivePool))
+            return;
+        if (network != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
+            try {
+                network.bindSocket(udpChannel.getSocket());
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
     /**
      * Take over the owenership of the access point / network settings. The
      * activity that was the owner before is not able to change the settings
@@ -313,15 +344,32 @@ public class BootstrapService extends Service implements Handler.Callback {
         access_point_key = this.getString(R.string.access_point_key);
         bootstrapCore = new BootstrapCore(null, bound_key.getBytes(), unbound_key.getBytes(),
                 access_point_ssid);
-        udpNetwork = new UDPMulticastSendReceive();
-
+        receivePool = new ReceiveWorkerPool(bootstrapCore,
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 256);
+        // Keep the main thread free while encrypting the bootstrap packets for many devices
+        encryptPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        bootstrapCore.setEncryptExecutor(encryptPool);
+        bootstrapCore.setEntropySource(new EntropySource(new SecureRandom(), encryptPool));
+        InetAddress multicastGroup = null;
         try {
-            InetAddress multicastGroup = InetAddress.getByName("239.0.0.57");
-            udpNetwork.setBroadcastAddress(multicastGroup);
+            multicastGroup = InetAddress.getByName("239.0.0.57");
         } catch (UnknownHostException ignored) {
         }
 
-        bootstrapCore.setNetwork(udpNetwork);
+        // Bind and bootstrap packets go to the device directly, broadcast after 3 unanswered packets
+        if (getResources().getBoolean(R.bool.udp_channel_transport)) {
+            udpChannel = new UDPChannelSendReceive();
+            udpChannel.setUnicast(true, 3);
+            udpChannel.setBroadcastAddress(multicastGroup);
+            bootstrapCore.setNetwork(udpChannel);
+        } else {
+            udpNetwork = new UDPMulticastSendReceive();
+            udpNetwork.setUnicast(true, 3);
+            // Don't overrun the receive buffers of ESP8266 class devices
+            udpNetwork.setPacketsPerSecond(250);
+            udpNetwork.setBroadcastAddress(multicastGroup);
+            bootstrapCore.setNetwork(udpNetwork);
+        }
     }
 
     @Override
@@ -330,7 +378,16 @@ public class BootstrapService extends Service implements Handler.Callback {
         wifiChangedObserverAndroid4.unregister(this);
 
         restoreWifi(null);
-        udpNetwork.tearDown();
+        if (udpChannel != null)
+            udpChannel.tearDown();
+        else
+            udpNetwork.tearDown();
+        if (multicastLock != null) {
+            multicastLock.release();
+            multicastLock = null;
+        }
+        receivePool.shutdown();
+        encryptPool.shutdown();
         super.onDestroy();
     }
 
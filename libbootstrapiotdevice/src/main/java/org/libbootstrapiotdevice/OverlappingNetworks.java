@@ -1,46 +1,161 @@
 package org.libbootstrapiotdevice;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Allows to add BootstrapCore and computes a list of all their wireless networks and the
  * overlapping.
+ * <p/>
+ * The networks are indexed by their ssid, adding, updating or removing a device only touches
+ * the networks of that device. The list of networks keeps the order in which the networks
+ * have been reported first, a network is removed from the list if no device reaches it anymore.
  */
 public class OverlappingNetworks {
-    public List<WirelessNetworkWithUsage> networks = new ArrayList<>();
-    public Set<BootstrapDevice> devices = new TreeSet<>();
-
-    public List<Integer> addDevice(BootstrapDevice device) {
-        List<Integer> changes = new ArrayList<>();
-
-        if (devices.contains(device))
-            return changes;
-
-        devices.add(device);
-
-        List<WirelessNetwork> reachableNetworks = new ArrayList<>(device.getReachableNetworks());
-
-        for (int i = networks.size()-1; i>=0 ; --i) {
-            WirelessNetworkWithUsage network = networks.get(i);
-            Iterator<WirelessNetwork> deviceNetworkIterator = reachableNetworks.iterator();
-            while (deviceNetworkIterator.hasNext()) {
-                WirelessNetwork deviceNetwork = deviceNetworkIterator.next();
-                if (deviceNetwork.equals(network)) {
-                    deviceNetworkIterator.remove();
-                    network.addDevice(device, deviceNetwork.getStrength());
-                    changes.add(i);
-                    break;
-                }
+    /**
+     * Get notified of changes to the networks list, for example to update a list view.
+     */
+    public interface ChangeListener {
+        void networkUpdated(int index, boolean added);
+
+        void networkRemoved(int index);
+    }
+
+    /**
+     * More devices first, then the better strength of the weakest quarter of the devices,
+     * then the better average strength, then by ssid.
+     */
+    private static final Comparator<WirelessNetworkWithUsage> rankByCoverage = new Comparator<WirelessNetworkWithUsage>() {
+        @Override
+        public int compare(WirelessNetworkWithUsage a, WirelessNetworkWithUsage b) {
+            if (a.deviceCount() != b.deviceCount())
+                return a.deviceCount() > b.deviceCount() ? -1 : 1;
+            int quartileA = a.getStrengthPercentile(25);
+            int quartileB = b.getStrengthPercentile(25);
+            if (quartileA != quartileB)
+                return quartileA > quartileB ? -1 : 1;
+            if (a.getStrength() != b.getStrength())
+                return a.getStrength() > b.getStrength() ? -1 : 1;
+            return a.ssid.compareTo(b.ssid);
+        }
+    };
+
+    public final List<WirelessNetworkWithUsage> networks = new ArrayList<>();
+    private final Map<String, WirelessNetworkWithUsage> networksBySsid = new HashMap<>();
+    // The ssids of the networks every device is counted for, by device uid
+    private final Map<String, Set<String>> devices = new HashMap<>();
+    private ChangeListener listener = null;
+
+    public void setChangeListener(ChangeListener listener) {
+        this.listener = listener;
+    }
+
+    public int deviceCount() {
+        return devices.size();
+    }
+
+    public boolean containsDevice(BootstrapDevice device) {
+        return devices.containsKey(device.uid);
+    }
+
+    /**
+     * @return Return the network with the given ssid or null.
+     */
+    public WirelessNetworkWithUsage getNetwork(String ssid) {
+        return networksBySsid.get(ssid);
+    }
+
+    /**
+     * @return Return the position of the network with the given ssid in {@see #networks} or -1.
+     */
+    public int indexOf(String ssid) {
+        WirelessNetworkWithUsage network = networksBySsid.get(ssid);
+        return network == null ? -1 : network.position;
+    }
+
+    /**
+     * Add a device or update the networks and strengths of a known device with its current
+     * reachable networks.
+     *
+     * @param device The device
+     */
+    public void addDevice(BootstrapDevice device) {
+        Set<String> before = devices.get(device.uid);
+        Set<String> now = new LinkedHashSet<>();
+
+        for (WirelessNetwork deviceNetwork : device.getReachableNetworks()) {
+            if (!now.add(deviceNetwork.ssid))
+                continue;
+            WirelessNetworkWithUsage network = networksBySsid.get(deviceNetwork.ssid);
+            if (network == null) {
+                network = new WirelessNetworkWithUsage(deviceNetwork);
+                network.position = networks.size();
+                network.addDevice(device, deviceNetwork.getStrength());
+                networks.add(network);
+                networksBySsid.put(network.ssid, network);
+                if (listener != null)
+                    listener.networkUpdated(network.position, true);
+            } else if (network.addDevice(device, deviceNetwork.getStrength()) && listener != null) {
+                listener.networkUpdated(network.position, false);
             }
         }
 
-        for (WirelessNetwork entry: reachableNetworks) {
-            networks.add(new WirelessNetworkWithUsage(entry, device));
+        if (before != null) {
+            for (String ssid : before) {
+                if (!now.contains(ssid))
+                    removeFromNetwork(networksBySsid.get(ssid), device);
+            }
         }
-        return changes;
+        devices.put(device.uid, now);
+    }
+
+    /**
+     * Remove a device from all its networks.
+     *
+     * @param device The device
+     * @return Return true if the device was known.
+     */
+    public boolean removeDevice(BootstrapDevice device) {
+        Set<String> before = devices.remove(device.uid);
+        if (before == null)
+            return false;
+        for (String ssid : before)
+            removeFromNetwork(networksBySsid.get(ssid), device);
+        return true;
+    }
+
+    private void removeFromNetwork(WirelessNetworkWithUsage network, BootstrapDevice device) {
+        network.removeDevice(device);
+        if (network.deviceCount() > 0) {
+            if (listener != null)
+                listener.networkUpdated(network.position, false);
+            return;
+        }
+
+        int position = network.position;
+        networks.remove(position);
+        networksBySsid.remove(network.ssid);
+        for (int i = position; i < networks.size(); ++i)
+            networks.get(i).position = i;
+        if (listener != null)
+            listener.networkRemoved(position);
+    }
+
+    /**
+     * Rank the networks by how many devices reach them and by the signal strengths.
+     *
+     * @param limit Maximum count of returned networks.
+     * @return Return the best networks, the best first.
+     */
+    public List<WirelessNetworkWithUsage> getBestNetworks(int limit) {
+        List<WirelessNetworkWithUsage> ranked = new ArrayList<>(networks);
+        Collections.sort(ranked, rankByCoverage);
+        return ranked.subList(0, Math.min(limit, ranked.size()));
     }
 }
@@ -1,5 +1,9 @@
 package org.libbootstrapiotdevice;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This class describes a wireless network of a bootstrap node.
  */
@@ -30,6 +34,41 @@ public class WirelessNetwork {
         this.strength = strength;
     }
 
+    /**
+     * Decode a wifi list of a device response. The list has to be validated already, see
+     * {@see org.libbootstrapiotdevice.network.PacketDecoder}. Every entry consists of the
+     * strength, the encryption mode and the \0 terminated ssid.
+     *
+     * @param data    The data
+     * @param offset  Offset of the first entry
+     * @param length  Length of the list in bytes
+     * @param entries Entries in the list
+     * @return Return the decoded networks.
+     */
+    public static List<WirelessNetwork> decodeList(byte[] data, int offset, int length, int entries) {
+        List<WirelessNetwork> list = new ArrayList<>(entries);
+        EncryptionMode[] modes = EncryptionMode.values();
+        int end = offset + length;
+        while (entries-- > 0 && offset < end) {
+            WirelessNetwork network = new WirelessNetwork();
+            network.setStrength(data[offset++] & 255);
+
+            int temp = data[offset++] & 255;
+            if (temp > 0 && temp < modes.length)
+                network.mode = modes[temp];
+            else
+                network.mode = EncryptionMode.Unknown;
+
+            int ssid_start = offset;
+            while (offset < end && data[offset] != 0)
+                ++offset;
+            network.ssid = new String(data, ssid_start, offset - ssid_start, Charset.defaultCharset());
+            ++offset; // \0
+            list.add(network);
+        }
+        return list;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof WirelessNetwork)) return false;
@@ -37,6 +76,11 @@ public class WirelessNetwork {
         return other.ssid.equals(ssid);
     }
 
+    @Override
+    public int hashCode() {
+        return ssid.hashCode();
+    }
+
     public enum EncryptionMode {
         NoEncryption,
         WEP,
@@ -1,37 +1,138 @@
 package org.libbootstrapiotdevice;
 
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
- * Extends the WirelessNetwork class by a computed average signal strength. Bootstrap devices
- * can be added at any time.
+ * Extends the WirelessNetwork class by the average signal strength of all devices that
+ * reach the network. Bootstrap devices can be added, updated and removed at any time,
+ * the sum of the strengths is maintained with every change, getStrength() does not
+ * iterate the devices.
+ * <p/>
+ * Strengths are percentages, a histogram with one bucket per percent is maintained as well.
+ * Minimum, maximum and percentiles are read from the histogram and do not depend on the
+ * amount of devices.
  */
 public class WirelessNetworkWithUsage extends WirelessNetwork {
-    private Map<BootstrapDevice, Integer> devices_with_signal_strength = new TreeMap<>();
+    public static final int MAX_STRENGTH = 100;
+    // Strength by device uid
+    private Map<String, Integer> devices_with_signal_strength = new HashMap<>();
+    private long strength_sum = 0;
+    // Devices per strength 0..100
+    private final int[] histogram = new int[MAX_STRENGTH + 1];
+    private int min_strength = MAX_STRENGTH;
+    private int max_strength = 0;
+    // Position in {@see OverlappingNetworks#networks}
+    int position;
 
-    WirelessNetworkWithUsage(WirelessNetwork original, BootstrapDevice user) {
+    WirelessNetworkWithUsage(WirelessNetwork original) {
         super(original);
-        devices_with_signal_strength.put(user, original.getStrength());
     }
 
-    // Compute average
+    // Average of all devices
     @Override
     public int getStrength() {
-        Iterator<Map.Entry<BootstrapDevice, Integer>> it = devices_with_signal_strength.entrySet().iterator();
-        int total = 0;
-        while (it.hasNext()) {
-            total += it.next().getValue();
+        int count = devices_with_signal_strength.size();
+        return count == 0 ? 0 : (int) (strength_sum / count);
+    }
+
+    /**
+     * @return Return the weakest strength of all devices or 0 without devices.
+     */
+    public int getMinStrength() {
+        return deviceCount() == 0 ? 0 : min_strength;
+    }
+
+    /**
+     * @return Return the best strength of all devices or 0 without devices.
+     */
+    public int getMaxStrength() {
+        return deviceCount() == 0 ? 0 : max_strength;
+    }
+
+    /**
+     * The strength that the given percentage of devices have or fall below. For example
+     * getStrengthPercentile(25) is the strength of the weakest quarter of the devices,
+     * getStrengthPercentile(50) is the median.
+     *
+     * @param percent 0..100
+     * @return Return the strength or 0 without devices.
+     */
+    public int getStrengthPercentile(int percent) {
+        int count = deviceCount();
+        if (count == 0)
+            return 0;
+        // Nearest rank
+        int rank = Math.max(1, (int) Math.ceil(percent / 100.0 * count));
+        int seen = 0;
+        for (int strength = min_strength; strength < max_strength; ++strength) {
+            seen += histogram[strength];
+            if (seen >= rank)
+                return strength;
         }
-        return total / devices_with_signal_strength.size();
+        return max_strength;
     }
 
     public int deviceCount() {
         return devices_with_signal_strength.size();
     }
 
-    public void addDevice(BootstrapDevice device, int strength) {
-        devices_with_signal_strength.put(device, strength);
+    public boolean containsDevice(BootstrapDevice device) {
+        return devices_with_signal_strength.containsKey(device.uid);
+    }
+
+    /**
+     * Add a device or update the strength the device reports for this network.
+     *
+     * @return Return true if the device is new or reports another strength.
+     */
+    public boolean addDevice(BootstrapDevice device, int strength) {
+        Integer old = devices_with_signal_strength.put(device.uid, strength);
+        if (old != null && old == strength)
+            return false;
+        strength_sum += strength - (old == null ? 0 : old);
+        // Add first, the histogram is never empty while the device is counted
+        addToHistogram(strength);
+        if (old != null)
+            removeFromHistogram(old);
+        return true;
+    }
+
+    /**
+     * @return Return true if the device was known.
+     */
+    public boolean removeDevice(BootstrapDevice device) {
+        Integer old = devices_with_signal_strength.remove(device.uid);
+        if (old == null)
+            return false;
+        strength_sum -= old;
+        removeFromHistogram(old);
+        return true;
+    }
+
+    private static int bucket(int strength) {
+        return Math.max(0, Math.min(MAX_STRENGTH, strength));
+    }
+
+    private void addToHistogram(int strength) {
+        int b = bucket(strength);
+        ++histogram[b];
+        min_strength = Math.min(min_strength, b);
+        max_strength = Math.max(max_strength, b);
+    }
+
+    private void removeFromHistogram(int strength) {
+        int b = bucket(strength);
+        --histogram[b];
+        if (deviceCount() == 0) {
+            min_strength = MAX_STRENGTH;
+            max_strength = 0;
+            return;
+        }
+        // Search the next non empty bucket, at most MAX_STRENGTH steps
+        while (histogram[min_strength] == 0)
+            ++min_strength;
+        while (histogram[max_strength] == 0)
+            --max_strength;
     }
 }
@@ -54,7 +54,7 @@ public class BootstrapActivityUtils implements ServiceConnection {
         BootstrapService.LocalBinder binder = (BootstrapService.LocalBinder) service;
         mService = binder.getService();
         BootstrapCore bootstrapCore = mService.getBootstrapCore();
-        bootstrapCore.addChangeListener(mDevicesAdapter);
+        bootstrapCore.addListListener(mDevicesAdapter);
         mDevicesAdapter.setData(bootstrapCore.getDevices());
         if (bootstrapServiceReady != null)
             bootstrapServiceReady.onBootstrapServiceReady();
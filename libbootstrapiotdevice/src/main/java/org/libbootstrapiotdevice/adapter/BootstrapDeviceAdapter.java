@@ -3,8 +3,13 @@ package org.libbootstrapiotdevice.adapter;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,22 +22,27 @@ import org.libbootstrapiotdevice.BootstrapDevice;
 import org.libbootstrapiotdevice.DeviceMode;
 import org.libbootstrapiotdevice.R;
 import org.libbootstrapiotdevice.WirelessNetwork;
-import org.libbootstrapiotdevice.network.BootstrapDeviceUpdateListener;
+import org.libbootstrapiotdevice.network.DeviceListChanges;
+import org.libbootstrapiotdevice.network.DeviceListListener;
+import org.libbootstrapiotdevice.network.DeviceRegistry;
 import org.libbootstrapiotdevice.network.DeviceState;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 
 /**
  * Lists all bootstrap devices in range. Shows the name and wifi signal strengths and a checkbox
  * per device. To be filled with the helper class {@see BootstrapDevicesViaWifiScan}
  */
-public class BootstrapDeviceAdapter extends RecyclerView.Adapter<BootstrapDeviceAdapter.ViewHolder> implements BootstrapDeviceUpdateListener, CompoundButton.OnCheckedChangeListener {
+public class BootstrapDeviceAdapter extends RecyclerView.Adapter<BootstrapDeviceAdapter.ViewHolder> implements DeviceListListener,
+        DeviceListUpdater.Callback, CompoundButton.OnCheckedChangeListener {
     Drawable d[] = new Drawable[]{null,null,null,null,null,null};
     boolean onBind = false;
     onSelectionChange observer;
     private List<BootstrapDevice> data;
     private boolean selectionEnabled = true;
+    private final DeviceListUpdater updater;
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public BootstrapDeviceAdapter(Context context) {
@@ -42,6 +52,24 @@ public class BootstrapDeviceAdapter extends RecyclerView.Adapter<BootstrapDevice
         d[3] = context.getResources().getDrawable(R.drawable.ic_signal_wifi_2_bar_black_24dp,context.getTheme());
         d[4] = context.getResources().getDrawable(R.drawable.ic_signal_wifi_3_bar_black_24dp,context.getTheme());
         d[5] = context.getResources().getDrawable(R.drawable.ic_signal_wifi_4_bar_black_24dp,context.getTheme());
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        updater = new DeviceListUpdater(new DeviceListUpdater.FrameScheduler() {
+            @Override
+            public void postFrameCallback(final Runnable runnable) {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        runnable.run();
+                    }
+                });
+            }
+        }, new Executor() {
+            @Override
+            public void execute(@NonNull Runnable runnable) {
+                handler.post(runnable);
+            }
+        }, AsyncTask.THREAD_POOL_EXECUTOR, this);
     }
 
     public void setOnSelectionChangeListener(onSelectionChange observer) {
@@ -50,6 +78,7 @@ public class BootstrapDeviceAdapter extends RecyclerView.Adapter<BootstrapDevice
 
     public void setData(List<BootstrapDevice> data) {
         this.data = data;
+        updater.reset(data);
         notifyDataSetChanged();
     }
 
@@ -127,27 +156,36 @@ public class BootstrapDeviceAdapter extends RecyclerView.Adapter<BootstrapDevice
         }
     }
 
+    /**
+     * A new snapshot of the device list. The changes are not applied directly: All snapshots
+     * until the next frame are compared with the shown list on a background thread, only
+     * the resulting ranges are notified.
+     */
     @Override
-    public void deviceUpdated(int index, boolean added) {
-        if (added)
-            notifyItemInserted(index);
-        else
-            notifyItemChanged(index);
-    }
-
-    @Override
-    public void deviceRemoved(int index) {
-        notifyItemRemoved(index);
-    }
-
-    @Override
-    public void deviceRemoveAll() {
-        notifyDataSetChanged();
+    public void devicesChanged(DeviceRegistry.Snapshot snapshot, DeviceListChanges changes) {
+        updater.submit(snapshot);
     }
 
     @Override
-    public void deviceChangesFinished() {
-
+    public void dispatch(List<BootstrapDevice> devices, DeviceListChanges changes) {
+        this.data = devices;
+        if (changes.isReset()) {
+            notifyDataSetChanged();
+            return;
+        }
+        for (DeviceListChanges.Range range : changes.getRanges()) {
+            switch (range.type) {
+                case DeviceListChanges.INSERTED:
+                    notifyItemRangeInserted(range.start, range.count);
+                    break;
+                case DeviceListChanges.CHANGED:
+                    notifyItemRangeChanged(range.start, range.count);
+                    break;
+                case DeviceListChanges.REMOVED:
+                    notifyItemRangeRemoved(range.start, range.count);
+                    break;
+            }
+        }
     }
 
     // inner class to hold a reference to each item of RecyclerView
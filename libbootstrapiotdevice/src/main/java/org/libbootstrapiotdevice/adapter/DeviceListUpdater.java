@@ -0,0 +1,145 @@
+package org.libbootstrapiotdevice.adapter;
+
+import org.libbootstrapiotdevice.BootstrapDevice;
+import org.libbootstrapiotdevice.network.DeviceListChanges;
+import org.libbootstrapiotdevice.network.DeviceListDiff;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces device list updates for a list view: All lists submitted until the next frame
+ * result in one diff against the shown list. The diff is computed on a background executor,
+ * the result is dispatched on the main thread. While a diff is computed, newer lists wait
+ * for the next frame.
+ * <p/>
+ * {@see #submit(List)} may be called from any thread, everything else happens on the
+ * main thread.
+ */
+public class DeviceListUpdater {
+    /**
+     * Calls the given runnable with the next frame, on the main thread.
+     */
+    public interface FrameScheduler {
+        void postFrameCallback(Runnable runnable);
+    }
+
+    public interface Callback {
+        /**
+         * Show the new list and notify the view with the given changes. Called for every
+         * computed diff, also without changes: Unchanged devices may be new instances.
+         */
+        void dispatch(List<BootstrapDevice> devices, DeviceListChanges changes);
+    }
+
+    private final FrameScheduler frames;
+    private final Executor mainThread;
+    private final Executor diffExecutor;
+    private final Callback callback;
+    // Main thread
+    private List<BootstrapDevice> shown = Collections.emptyList();
+    private int[] shownStamps = new int[0];
+    private boolean computing = false;
+    private int generation = 0;
+    // Guarded by this
+    private List<BootstrapDevice> latest = null;
+    private boolean frameRequested = false;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+    private final Runnable requestFrame = new Runnable() {
+        @Override
+        public void run() {
+            frames.postFrameCallback(frame);
+        }
+    };
+
+    /**
+     * @param frames       The frame callbacks, for example of the Choreographer.
+     * @param mainThread   Runs tasks on the main thread.
+     * @param diffExecutor Computes the diffs.
+     * @param callback     Dispatches the changes on the main thread.
+     */
+    public DeviceListUpdater(FrameScheduler frames, Executor mainThread, Executor diffExecutor, Callback callback) {
+        this.frames = frames;
+        this.mainThread = mainThread;
+        this.diffExecutor = diffExecutor;
+        this.callback = callback;
+    }
+
+    /**
+     * Show the given list without a diff, for example for the initial list. The view has to be
+     * notified by the caller. Main thread only.
+     */
+    public void reset(List<BootstrapDevice> devices) {
+        synchronized (this) {
+            latest = null;
+        }
+        // A diff that is computed right now belongs to the old list
+        ++generation;
+        shown = devices;
+        shownStamps = DeviceListDiff.stamps(devices);
+    }
+
+    /**
+     * A new version of the list or a list with changed devices. It is shown with the next frame.
+     */
+    public void submit(List<BootstrapDevice> devices) {
+        synchronized (this) {
+            latest = devices;
+            if (frameRequested)
+                return;
+            frameRequested = true;
+        }
+        mainThread.execute(requestFrame);
+    }
+
+    private void onFrame() {
+        final List<BootstrapDevice> next;
+        synchronized (this) {
+            frameRequested = false;
+            if (computing || latest == null)
+                return;
+            next = latest;
+            latest = null;
+        }
+        computing = true;
+        final List<BootstrapDevice> old = shown;
+        final int[] oldStamps = shownStamps;
+        final int diffGeneration = generation;
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DeviceListDiff diff = DeviceListDiff.calculate(old, oldStamps, next);
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        apply(next, diff, diffGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    private void apply(List<BootstrapDevice> devices, DeviceListDiff diff, int diffGeneration) {
+        computing = false;
+        if (diffGeneration == generation) {
+            shown = devices;
+            shownStamps = diff.stamps;
+            callback.dispatch(devices, diff.changes);
+        }
+
+        // Lists submitted while computing
+        synchronized (this) {
+            if (latest == null || frameRequested)
+                return;
+            frameRequested = true;
+        }
+        frames.postFrameCallback(frame);
+    }
+}
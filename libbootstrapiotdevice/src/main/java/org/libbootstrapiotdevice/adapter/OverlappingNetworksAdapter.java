@@ -17,13 +17,12 @@ import org.libbootstrapiotdevice.OverlappingNetworks;
 import org.libbootstrapiotdevice.R;
 import org.libbootstrapiotdevice.WirelessNetwork;
 
-import java.util.List;
-
 
 /**
  * Build a list of wireless networks from all devices and
  */
-public class OverlappingNetworksAdapter extends RecyclerView.Adapter<OverlappingNetworksAdapter.ViewHolder> implements CompoundButton.OnCheckedChangeListener {
+public class OverlappingNetworksAdapter extends RecyclerView.Adapter<OverlappingNetworksAdapter.ViewHolder> implements CompoundButton.OnCheckedChangeListener,
+        OverlappingNetworks.ChangeListener {
     OverlappingNetworks data = new OverlappingNetworks();
     int selected = -1;
     boolean onBind = false;
@@ -33,6 +32,7 @@ public class OverlappingNetworksAdapter extends RecyclerView.Adapter<Overlapping
     onSelectionChange observer;
 
     public OverlappingNetworksAdapter(Context context) {
+        data.setChangeListener(this);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             d[0] = context.getResources().getDrawable(R.drawable.ic_signal_wifi_off_black_24dp, context.getTheme());
             d[1] = context.getResources().getDrawable(R.drawable.ic_signal_wifi_0_bar_black_24dp, context.getTheme());
@@ -83,12 +83,10 @@ public class OverlappingNetworksAdapter extends RecyclerView.Adapter<Overlapping
     public void setSelectedNetwork(String networkSSID) {
         if (networkSSID == null)
             return;
-        for (int i = 0; i < data.networks.size(); i++) {
-            if (data.networks.get(i).ssid.equals(networkSSID)) {
-                selected = i;
-                notifyDataSetChanged();
-                break;
-            }
+        int index = data.indexOf(networkSSID);
+        if (index != -1) {
+            selected = index;
+            notifyDataSetChanged();
         }
     }
 
@@ -112,22 +110,40 @@ public class OverlappingNetworksAdapter extends RecyclerView.Adapter<Overlapping
         onBind = true;
         viewHolder.txtTitle.setChecked(position == selected);
         onBind = false;
-        viewHolder.txtSubtitle.setText(c.getString(R.string.network_entry, data.networks.get(position).deviceCount(), data.devices.size()));
+        viewHolder.txtSubtitle.setText(c.getString(R.string.network_entry, data.networks.get(position).deviceCount(), data.deviceCount()));
         int strength = data.networks.get(position).getStrength();
         viewHolder.imgViewIcon.setImageDrawable(d[strength * (d.length - 1) / 100]);
     }
 
+    /**
+     * Add a device or update the networks of a known device.
+     */
     public void addDevice(BootstrapDevice device) {
-        int sizeBefore = data.networks.size();
-        List<Integer> changes = data.addDevice(device);
+        data.addDevice(device);
+    }
 
-        for (Integer index: changes) {
+    public void removeDevice(BootstrapDevice device) {
+        data.removeDevice(device);
+    }
+
+    @Override
+    public void networkUpdated(int index, boolean added) {
+        if (added)
+            notifyItemInserted(index);
+        else
             notifyItemChanged(index);
-        }
+    }
 
-        if (sizeBefore != data.networks.size()) {
-            notifyItemRangeInserted(sizeBefore, data.networks.size()-1);
-        }
+    @Override
+    public void networkRemoved(int index) {
+        boolean selectionRemoved = index == selected;
+        if (selectionRemoved)
+            selected = -1;
+        else if (index < selected)
+            --selected;
+        notifyItemRemoved(index);
+        if (selectionRemoved && observer != null)
+            observer.onSelectionChanged();
     }
 
     // inner class to hold a reference to each item of RecyclerView
@@ -1,8 +1,6 @@
 package org.libbootstrapiotdevice.network;
 
-import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -10,17 +8,19 @@ import android.util.Log;
 import org.libbootstrapiotdevice.BootstrapData;
 import org.libbootstrapiotdevice.BootstrapDevice;
 import org.libbootstrapiotdevice.DeviceMode;
-import org.libbootstrapiotdevice.WirelessNetwork;
-import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The communication object that implements the communication protocol for devices that use a compatible
@@ -29,43 +29,86 @@ import java.util.Random;
  * to act as a receiver for a network class and uses the interface
  * {@see org.libbootstrapiotdevice.network.IUDPNetwork}, set with setNetwork, to send
  * encrypted data packages.
+ * <p/>
+ * All protocol steps run on the thread of a {@see ProtocolScheduler}. Retries of the bootstrap
+ * phase are scheduled per device and cancelled as soon as the device confirms. The retry
+ * delays adapt to the measured round trip times and back off exponentially, see
+ * {@see RetransmissionTimer}.
  */
-public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
+public class BootstrapCore implements IUDPNetworkReceive {
     public static final int RECEIVE_PORT = 8711;
     public static final int SEND_PORT = 8711;
+    // Three of the longest retry intervals without any answer
+    public static final int DEFAULT_LIVENESS_TIMEOUT_MS = 3 * RetransmissionTimer.MAX_TIMEOUT_MS;
+    // The same total durations as the former fixed intervals (3 detect packets in 6 s,
+    // 5 bootstrap attempts in 10 s): The interval doubles, the sum is interval * (2^attempts - 1)
+    static final int DEFAULT_DETECT_ATTEMPTS = 3;
+    static final int DEFAULT_DETECT_INTERVAL_MS = 6000 / ((1 << DEFAULT_DETECT_ATTEMPTS) - 1);
+    static final int DEFAULT_BOOTSTRAP_ATTEMPTS = 5;
+    static final int DEFAULT_BOOTSTRAP_INTERVAL_MS = 10000 / ((1 << DEFAULT_BOOTSTRAP_ATTEMPTS) - 1);
     ///// Encryption related /////
     final static public int BST_NONCE_SIZE = 8;
     final static public int BST_UID_SIZE = 6;
     final static public int BST_CRYPTO_KEY_MAX_SIZE = 32;
     final static public int BST_CHECKSUM_SIZE = 2;
     final static public int BST_STORAGE_RAM_SIZE = 512;
-    // Async
-    final static int MSG_DETECT = 1;
-    final static int MSG_DETECT_FINISHED = 2;
-    final static int MSG_BOOTSTRAP = 3;
-    final static int MSG_BOOTSTRAP_FINISHED = 4;
-    final static int MSG_BIND_OR_UPDATE = 5;
-    final static int MSG_DEVICE_ONLINE = 6;
     ////// Protocol related //////
     protected static byte[] header = "BSTwifi1".getBytes();
     public static int protocol_header_len = header.length + BST_CHECKSUM_SIZE + 1;
+    // values() returns a copy
+    private static final DeviceState[] DEVICE_STATES = DeviceState.values();
     // Debug
     private static String TAG = "BootstrapCore";
     ////// Network related /////
-    protected ByteArrayOutputStream sendStream = new ByteArrayOutputStream(1024);
+    protected PacketOutputStream sendStream = new PacketOutputStream(1024);
     byte[] bound_key = new byte[BST_CRYPTO_KEY_MAX_SIZE];
     int bound_key_len = 0;
     // Device list
-    private List<BootstrapDevice> devices = new ArrayList<>();
-    private List<BootstrapDeviceUpdateListener> changeListener = new ArrayList<>();
+    private DeviceRegistry devices = new DeviceRegistry();
+    // Copy on write: Listeners may add or remove listeners in their callbacks. An array, the
+    // loop over it does not allocate an iterator for every received response.
+    private volatile BootstrapDeviceUpdateListener[] changeListener = new BootstrapDeviceUpdateListener[0];
+    private List<DeviceListListener> listListener = new CopyOnWriteArrayList<>();
+    // Changes of the current run of the protocol thread, delivered to the list listeners by
+    // one task. Null if there are no changes.
+    private DeviceListChanges changes = null;
     private IUDPNetwork network;
     private byte[] unbound_key = new byte[BST_CRYPTO_KEY_MAX_SIZE];
     private byte[] app_nonce = new byte[BST_NONCE_SIZE];
     private int unbound_key_len = 0;
+    // Only for the jitter of retry delays
     private Random random = new Random();
-    private SpritzState crypto = new SpritzState();
+    // Nonces and padding
+    private EntropySource entropy = new EntropySource();
+    // Random bytes after the bind key and the bootstrap data
+    private final byte[] padding = new byte[BST_STORAGE_RAM_SIZE];
+    private final AtomicLong keyHintHits = new AtomicLong();
+    private final AtomicLong keyHintMisses = new AtomicLong();
+    // parsePacket() may be called by several receive workers, every thread has its own decoder
+    private final ThreadLocal<PacketDecoder> decoder = new ThreadLocal<PacketDecoder>() {
+        @Override
+        protected PacketDecoder initialValue() {
+            return new PacketDecoder();
+        }
+    };
     private String current_ssid;
-    private Handler handler;
+    private byte[] current_ssid_bytes;
+    private ProtocolScheduler scheduler;
+    // Accepted responses on their way from the receive threads to the protocol thread
+    private final ResponseQueue responses;
+    // Detect phase: The broadcast HELLO attempts and the finished notification
+    private List<ProtocolScheduler.Task> detectTasks = new ArrayList<>();
+    // Bootstrap phase: Pending retries by device and the finished notification
+    private Map<BootstrapDevice, DeviceRetry> retries = new IdentityHashMap<>();
+    private ProtocolScheduler.Task bootstrapFinishedTask;
+    private boolean bootstrapping = false;
+    // Round trip times of all devices, the start value for the timers of new devices
+    private RetransmissionTimer rttEstimate = new RetransmissionTimer(RetransmissionTimer.MAX_TIMEOUT_MS);
+    private float retransmitJitter = 0.25f;
+    // Encrypts the bootstrap packets. Null to encrypt on the protocol thread.
+    private Executor encryptExecutor = null;
+    // Marks silent devices as not in range. Null if disabled.
+    private LivenessTracker liveness = null;
 
     /**
      * Creates a communication object for communicating with devices that use a compatible
@@ -78,15 +121,28 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
      * sense to create a new app nonce value each time a communication session starts, you may call
      * generateAppNonce() before using sendRequestWifiList() and other traffic generating methods.
      *
-     * @param overwrite_handler For tests only. Replace the message handler.
+     * @param scheduler         Executes the protocol steps. If null, the steps are executed on
+     *                          the Looper of the calling thread.
      * @param bound_key         The key that is used if the app has bound the device.
      * @param unbound_key       The key that is initially used for the app<-->device communication.
      * @param current_ssid      If the app spans an access point to let devices connect to it, provide
      */
-    public BootstrapCore(@Nullable Handler overwrite_handler, byte[] bound_key, byte[] unbound_key,
+    public BootstrapCore(@Nullable ProtocolScheduler scheduler, byte[] bound_key, byte[] unbound_key,
                          String current_ssid) {
-        this.handler = overwrite_handler != null ? overwrite_handler : new Handler(Looper.myLooper(), this);
+        this.scheduler = scheduler != null ? scheduler : new HandlerScheduler(Looper.myLooper());
+        this.responses = new ResponseQueue(this.scheduler, new ResponseQueue.Handler() {
+            @Override
+            public void deviceOnline(int index, BootstrapDevice device, DeviceState state) {
+                BootstrapCore.this.deviceOnline(index, device, state);
+            }
+
+            @Override
+            public void deviceUpdated(int index, BootstrapDevice device) {
+                bindOrUpdate(index, device);
+            }
+        });
         this.current_ssid = current_ssid;
+        this.current_ssid_bytes = current_ssid != null ? current_ssid.getBytes(Charset.defaultCharset()) : null;
         unbound_key_len = unbound_key.length;
         bound_key_len = bound_key.length;
 
@@ -104,17 +160,33 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
         return Arrays.copyOfRange(data, header.length, header.length + BST_CHECKSUM_SIZE);
     }
 
+    /**
+     * @return Return the checksum of the packet as int16, comparable to the result of
+     * {@see Checksums#GenerateChecksumCRC16(byte[], int, int)}.
+     */
+    public static int extractCRCValue(byte data[]) {
+        return ((data[header.length] & 0xff) << 8) | (data[header.length + 1] & 0xff);
+    }
+
     public static DeviceState extractState(byte data[]) {
-        int code = data[header.length + BST_CHECKSUM_SIZE];
-        if (code > DeviceState.values().length) {
+        int code = data[header.length + BST_CHECKSUM_SIZE] & 0xff;
+        if (code >= DEVICE_STATES.length) {
             return null;
         }
-        return DeviceState.values()[code];
+        return DEVICE_STATES[code];
     }
 
     public static boolean isHeaderValid(byte data[]) {
+        return isHeaderValid(data, data.length);
+    }
+
+    /**
+     * @param data   The packet buffer, may be larger than the packet.
+     * @param length The packet length.
+     */
+    public static boolean isHeaderValid(byte data[], int length) {
         // We expect at least the header, a crc code, and a device mode
-        if (data.length < protocol_header_len) {
+        if (length < protocol_header_len) {
             return false;
         }
 
@@ -126,7 +198,18 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
     }
 
     private void generateAppNonce() {
-        for (int i = 0; i < app_nonce.length; ++i) app_nonce[i] = (byte) random.nextInt(256);
+        entropy.nextBytes(app_nonce);
+    }
+
+    /**
+     * Replace the source of nonces and padding, for example with one that refills on a
+     * background thread. Tests may inject deterministic bytes. Also generates a new app nonce.
+     *
+     * @param entropy The new entropy source.
+     */
+    public void setEntropySource(@NonNull EntropySource entropy) {
+        this.entropy = entropy;
+        generateAppNonce();
     }
 
     /**
@@ -164,10 +247,18 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
     }
 
     /**
-     * @return Return the bootstrap device list.
+     * @return Return an immutable snapshot of the bootstrap device list. Use a
+     * {@see DeviceListListener} to get the snapshots after changes.
      */
     @SuppressWarnings("unused")
-    public List<BootstrapDevice> getDevices() {
+    public DeviceRegistry.Snapshot getDevices() {
+        return devices.snapshot();
+    }
+
+    /**
+     * @return Return the modifiable device list, only to be used by tests.
+     */
+    DeviceRegistry getRegistry() {
         return devices;
     }
 
@@ -177,9 +268,10 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
             BootstrapDevice device = devices.get(i);
             if (!device.isSelected()) {
                 devices.remove(i);
-                for (BootstrapDeviceUpdateListener listener : changeListener) {
-                    listener.deviceRemoved(i);
-                }
+                cancelRetry(device);
+                if (liveness != null)
+                    liveness.remove(device);
+                notifyDeviceRemoved(i);
             }
         }
     }
@@ -190,9 +282,58 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
     @SuppressWarnings("unused")
     public void clearDevices() {
         devices.clear();
+        for (DeviceRetry retry : retries.values())
+            retry.cancel();
+        retries.clear();
+        if (liveness != null)
+            liveness.clear();
+        checkBootstrapFinished();
         for (BootstrapDeviceUpdateListener listener : changeListener) {
             listener.deviceRemoveAll();
         }
+        if (!listListener.isEmpty())
+            pendingChanges().removedAll();
+    }
+
+    /**
+     * Mark devices as not in range, if they have not been heard of for the given time.
+     * Devices only answer to requests, the timeout should be longer than the interval of
+     * the requests. The listeners get a deviceUpdated() call for every expired device.
+     * Devices that confirmed the bootstrap data do not expire.
+     * <p/>
+     * Disabled by default: {@see #detectDevices()} is one-shot, without further requests every
+     * idle device would expire after the detection. Only enable it if the requests are repeated.
+     *
+     * @param timeoutMS The timeout in milliseconds or 0 to disable the expiry.
+     *                  See {@see #DEFAULT_LIVENESS_TIMEOUT_MS}.
+     */
+    public void setLivenessTimeout(int timeoutMS) {
+        if (liveness != null)
+            liveness.clear();
+        liveness = null;
+        if (timeoutMS <= 0)
+            return;
+        liveness = new LivenessTracker(scheduler, timeoutMS, new LivenessTracker.Callback() {
+            @Override
+            public void expired(List<BootstrapDevice> expired) {
+                devicesExpired(expired);
+            }
+        });
+        for (BootstrapDevice device : devices)
+            liveness.heartbeat(device);
+    }
+
+    private void devicesExpired(List<BootstrapDevice> expired) {
+        for (BootstrapDevice device : expired) {
+            DeviceMode mode = device.getMode();
+            if (mode == DeviceMode.NotInRange || mode == DeviceMode.BootstrappingDone)
+                continue;
+            int index = devices.indexOfAddress(device.address);
+            if (index == -1 || devices.get(index) != device)
+                continue;
+            device.setMode(DeviceMode.NotInRange);
+            notifyDeviceUpdated(index, false);
+        }
     }
 
     /**
@@ -200,16 +341,83 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
      *
      * @param changeListener Your listener
      */
-    public void addChangeListener(BootstrapDeviceUpdateListener changeListener) {
-        this.changeListener.add(changeListener);
+    public synchronized void addChangeListener(BootstrapDeviceUpdateListener changeListener) {
+        BootstrapDeviceUpdateListener[] listeners = Arrays.copyOf(this.changeListener, this.changeListener.length + 1);
+        listeners[listeners.length - 1] = changeListener;
+        this.changeListener = listeners;
     }
 
     /**
      * Don't get any further notifications for device changes.
      * @param changeListener Your listener
      */
-    public void removeChangeListener(BootstrapDeviceUpdateListener changeListener) {
-        this.changeListener.remove(changeListener);
+    public synchronized void removeChangeListener(BootstrapDeviceUpdateListener changeListener) {
+        BootstrapDeviceUpdateListener[] listeners = this.changeListener;
+        for (int i = 0; i < listeners.length; ++i) {
+            if (listeners[i].equals(changeListener)) {
+                BootstrapDeviceUpdateListener[] remaining = new BootstrapDeviceUpdateListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, remaining, 0, i);
+                System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+                this.changeListener = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get notified of device list changes in batches, together with a snapshot of the list.
+     * The listener is called on the protocol thread.
+     *
+     * @param listener Your listener
+     */
+    public void addListListener(DeviceListListener listener) {
+        listListener.add(listener);
+    }
+
+    public void removeListListener(DeviceListListener listener) {
+        listListener.remove(listener);
+    }
+
+    private void notifyDeviceUpdated(int index, boolean added) {
+        for (BootstrapDeviceUpdateListener listener : changeListener) {
+            listener.deviceUpdated(index, added);
+        }
+        if (listListener.isEmpty())
+            return;
+        if (added)
+            pendingChanges().inserted(index);
+        else
+            pendingChanges().changed(index);
+    }
+
+    private void notifyDeviceRemoved(int index) {
+        for (BootstrapDeviceUpdateListener listener : changeListener) {
+            listener.deviceRemoved(index);
+        }
+        if (!listListener.isEmpty())
+            pendingChanges().removed(index);
+    }
+
+    /**
+     * @return Return the changes of the current batch. The first change of a batch posts
+     * the task that delivers the batch, after the tasks that are already queued.
+     */
+    private DeviceListChanges pendingChanges() {
+        if (changes == null) {
+            changes = new DeviceListChanges();
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    DeviceListChanges batch = changes;
+                    changes = null;
+                    DeviceRegistry.Snapshot snapshot = devices.snapshot();
+                    for (DeviceListListener listener : listListener) {
+                        listener.devicesChanged(snapshot, batch);
+                    }
+                }
+            });
+        }
+        return changes;
     }
 
     /**
@@ -223,13 +431,34 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
         sendStream.write(cmd.ordinal()); // command
     }
 
+    /**
+     * Encrypt the bootstrap packets (512 bytes each) on the given executor instead of the
+     * protocol thread. The executor threads hand the packets over to the network, which
+     * therefore has to accept packets from several threads.
+     *
+     * @param executor The executor or null to encrypt on the protocol thread.
+     */
+    public void setEncryptExecutor(@Nullable Executor executor) {
+        this.encryptExecutor = executor;
+    }
+
     /**
      * Compute crc and insert it into the packet and encrypt it.
      *
      * @return Return true if sending has been successfully.
      */
     private boolean encryptCrcAndSend(@Nullable BootstrapDevice device, boolean encrypt) {
-        byte data[] = sendStream.toByteArray();
+        return encryptCrcAndSend(device, sendStream.toPooledByteArray(), encrypt);
+    }
+
+    /**
+     * Compute crc and insert it into the given packet and encrypt it. Does not use
+     * the send stream and may be called from any thread.
+     *
+     * @param data A pooled array, the network takes ownership.
+     * @return Return true if sending has been successfully.
+     */
+    private boolean encryptCrcAndSend(@Nullable BootstrapDevice device, byte[] data, boolean encrypt) {
         // skip header and checksum and command field for checksum calculation
         byte crc[] = Checksums.CheckSumAsBytes(Checksums.GenerateChecksumCRC16(data, protocol_header_len));
         System.arraycopy(crc, 0, data, header.length, BST_CHECKSUM_SIZE);
@@ -244,76 +473,238 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
     }
 
     /**
-     * Handle messages from other threads and delayed messages.
+     * A device answered with an unencrypted hello. Add the device if necessary and
+     * send the request-wifi message to get the rest of the details.
      *
-     * @param msg The message that was send with handler.sendMessage*().
+     * @param index The device list index at the time the response was received or -1.
      */
-    @Override
-    public boolean handleMessage(Message msg) {
-        switch (msg.what) {
-            // Add device if necessary, send request-wifi message to get the rest of the details
-            case MSG_DEVICE_ONLINE: {
-                int index = msg.arg1;
-                boolean added = false;
-                BootstrapDevice device = (BootstrapDevice) msg.obj;
-                if (index == -1) {
-                    index = devices.size();
-                    devices.add(device);
-                    added = true;
-                }
+    private void deviceOnline(int index, BootstrapDevice device, DeviceState state) {
+        boolean added = false;
+        if (index == -1) {
+            // The device may have been added by a response that was handled before this one.
+            index = devices.indexOfAddress(device.address);
+            if (index == -1) {
+                index = devices.size();
+                devices.add(device);
+                added = true;
+            } else
+                device = devices.get(index);
+        }
+        if (liveness != null)
+            liveness.heartbeat(device);
+
+        // The device confirmed the bootstrap data, no further attempts for this device.
+        // Other hellos, for example answers to detect broadcasts, do not answer the packet in flight.
+        DeviceRetry retry = retries.get(device);
+        if (state == DeviceState.STATE_BOOTSTRAP_OK && retry != null) {
+            if (!retry.probing)
+                retry.answered();
+            device.setMode(DeviceMode.BootstrappingDone);
+            retry.cancel();
+            retries.remove(device);
+        }
+
+        notifyDeviceUpdated(index, added);
+        sendRequestWifiList(device);
+        if (retry != null)
+            checkBootstrapFinished();
+    }
 
-                for (BootstrapDeviceUpdateListener listener : changeListener) {
-                    listener.deviceUpdated(index, added);
+    /**
+     * A device answered with an encrypted response. Add or replace the device if necessary
+     * and send the bind-to-app message to unbound devices.
+     *
+     * @param index The device list index at the time the response was received or -1.
+     */
+    private void bindOrUpdate(int index, BootstrapDevice device) {
+        boolean added = false;
+        if (index == -1) {
+            // Known by address because of an earlier response or known by uid
+            // because the device got a new IP address.
+            index = devices.indexOfAddress(device.address);
+            if (index == -1)
+                index = devices.indexOfUid(device.uid);
+            if (index == -1) {
+                index = devices.size();
+                devices.add(device);
+                added = true;
+            } else {
+                BootstrapDevice old = devices.get(index);
+                device.setSelected(old.isSelected());
+                devices.set(index, device);
+                if (liveness != null)
+                    liveness.remove(old);
+                DeviceRetry retry = retries.remove(old);
+                if (retry != null) {
+                    retry.device = device;
+                    retries.put(device, retry);
                 }
-                sendRequestWifiList(device);
-                break;
             }
-            // Broadcast the request-wifi message
-            case MSG_DETECT:
-                sendRequestWifiList(null);
-                break;
-            case MSG_DETECT_FINISHED:
-            case MSG_BOOTSTRAP_FINISHED:
-                for (BootstrapDeviceUpdateListener listener : changeListener) {
-                    listener.deviceChangesFinished();
-                }
-                break;
-            // Add device if necessary, send bind-to-app message
-            case MSG_BIND_OR_UPDATE: {
-                int index = msg.arg1;
-                boolean added = false;
-                BootstrapDevice device = (BootstrapDevice) msg.obj;
-                if (index == -1) {
-                    index = devices.size();
-                    devices.add(device);
-                    added = true;
-                }
+        }
+        devices.updateUid(index);
+        if (liveness != null)
+            liveness.heartbeat(device);
+
+        notifyDeviceUpdated(index, added);
+
+        if (device.getMode() == DeviceMode.Binding)
+            bindToDevice(device);
+
+        // A device that was not in range answered the request-wifi message, send the bootstrap
+        // data right away instead of waiting for the next attempt. An encrypted response does
+        // not answer bootstrap data in flight.
+        DeviceRetry retry = retries.get(device);
+        if (retry != null && retry.probing) {
+            retry.answered();
+            if (device.getMode() == DeviceMode.Bound)
+                retry.restart();
+        }
+    }
 
-                for (BootstrapDeviceUpdateListener listener : changeListener) {
-                    listener.deviceUpdated(index, added);
-                }
+    /**
+     * The attempts of the bootstrap phase for one device. Devices in the bound mode get the
+     * bootstrap data, devices that did not answer yet get the request-wifi message.
+     * The delay between attempts is the retransmission timeout of the device.
+     */
+    private class DeviceRetry implements Runnable {
+        BootstrapDevice device;
+        final BootstrapData.Payload data;
+        final RetransmissionTimer timer;
+        int attemptsLeft;
+        // The last attempt was a request-wifi message
+        boolean probing = false;
+        // Send time of the unanswered packet or -1
+        long sentAt = -1;
+        // The unanswered packet was send more than once
+        boolean retransmitted = false;
+        ProtocolScheduler.Task task;
+
+        DeviceRetry(BootstrapDevice device, BootstrapData.Payload data, int intervalMS, int attempts) {
+            this.device = device;
+            this.data = data;
+            this.timer = new RetransmissionTimer(intervalMS, rttEstimate);
+            this.attemptsLeft = attempts;
+        }
 
-                if (device.getMode() == DeviceMode.Binding)
-                    bindToDevice(device);
-                break;
+        /**
+         * The device answered. Take a round trip time sample, if the answer belongs to a
+         * packet that was only send once.
+         */
+        void answered() {
+            if (sentAt >= 0 && !retransmitted) {
+                long rtt = scheduler.uptimeMillis() - sentAt;
+                timer.sample(rtt);
+                rttEstimate.sample(rtt);
             }
-            case MSG_BOOTSTRAP: {
-                for (int i = 0; i < devices.size(); i++) {
-                    BootstrapDevice device = devices.get(i);
-                    switch (device.getMode()) {
-                        case Bound:
-                            bootstrapDevice(device, (BootstrapData) msg.obj);
-                            break;
-                        case NotInRange:
-                            sendRequestWifiList(device);
-                            break;
-                    }
-                }
+            sentAt = -1;
+            retransmitted = false;
+        }
+
+        void cancel() {
+            if (task != null)
+                task.cancel();
+            task = null;
+        }
+
+        /**
+         * Start the next attempt immediately. An answered request-wifi message does not count
+         * as an attempt.
+         */
+        void restart() {
+            cancel();
+            if (probing) {
+                probing = false;
+                ++attemptsLeft;
             }
-            default:
-                break;
+            if (attemptsLeft > 0)
+                task = scheduler.post(this);
+        }
+
+        @Override
+        public void run() {
+            task = null;
+            // The last attempt timed out
+            if (attemptsLeft <= 0) {
+                retries.remove(device);
+                checkBootstrapFinished();
+                return;
+            }
+            --attemptsLeft;
+
+            // The last packet was not answered in time
+            if (sentAt >= 0) {
+                timer.backoff();
+                retransmitted = true;
+            }
+
+            probing = false;
+            switch (device.getMode()) {
+                case Bound:
+                    bootstrapDevice(device, data);
+                    break;
+                case NotInRange:
+                    probing = true;
+                    sendRequestWifiList(device);
+                    break;
+                default:
+                    // Binding: The bootstrap data is send after the device answered with the bound key
+                    task = scheduler.schedule(this, timer.nextDelay(random, retransmitJitter));
+                    return;
+            }
+            if (sentAt < 0)
+                sentAt = scheduler.uptimeMillis();
+            task = scheduler.schedule(this, timer.nextDelay(random, retransmitJitter));
+        }
+    }
+
+    private void cancelRetry(BootstrapDevice device) {
+        DeviceRetry retry = retries.remove(device);
+        if (retry != null) {
+            retry.cancel();
+            checkBootstrapFinished();
+        }
+    }
+
+    /**
+     * Randomize the retry delays by the given fraction of the retransmission timeout, so
+     * that devices do not answer at the same time. The default is 0.25.
+     *
+     * @param jitter 0 for fixed delays, at most 1.
+     */
+    public void setRetransmitJitter(float jitter) {
+        this.retransmitJitter = Math.max(0, Math.min(1, jitter));
+    }
+
+    /**
+     * @return Return the smoothed round trip time of all devices in milliseconds
+     * or -1 if no device answered in time yet.
+     */
+    public int getRoundTripTime() {
+        return rttEstimate.getSmoothedRtt();
+    }
+
+    /**
+     * Notify the listeners once all devices confirmed or ran out of attempts.
+     */
+    private void checkBootstrapFinished() {
+        if (!bootstrapping || !retries.isEmpty())
+            return;
+        bootstrapping = false;
+        if (bootstrapFinishedTask != null)
+            bootstrapFinishedTask.cancel();
+        bootstrapFinishedTask = scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                bootstrapFinishedTask = null;
+                notifyChangesFinished();
+            }
+        });
+    }
+
+    private void notifyChangesFinished() {
+        for (BootstrapDeviceUpdateListener listener : changeListener) {
+            listener.deviceChangesFinished();
         }
-        return true;
     }
 
     /**
@@ -323,14 +714,16 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
      * Use default values for interval and attempts.
      */
     public boolean detectDevices() {
-        return detectDevices(2000, 3);
+        return detectDevices(DEFAULT_DETECT_INTERVAL_MS, DEFAULT_DETECT_ATTEMPTS);
     }
 
     /**
      * Start detecting devices in the current network by sending HELLO
      * packets periodically. A new app nonce is generated for this session.
+     * Pending attempts of an earlier call are cancelled. The interval doubles after every
+     * attempt and is randomized by the jitter.
      *
-     * @param intervalMS Interval between broadcast detect packets.
+     * @param intervalMS Interval between the first two broadcast detect packets.
      * @param attempts   How many attempts? Should be at least 1.
      */
     public boolean detectDevices(int intervalMS, int attempts) {
@@ -341,9 +734,31 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
 
         generateAppNonce();
 
-        for (int i = 0; i < attempts; ++i)
-            handler.sendEmptyMessageDelayed(MSG_DETECT, i * intervalMS);
-        handler.sendEmptyMessageDelayed(MSG_DETECT_FINISHED, attempts * intervalMS);
+        for (ProtocolScheduler.Task task : detectTasks)
+            task.cancel();
+        detectTasks.clear();
+
+        // Devices are not known yet, every attempt is a broadcast
+        Runnable detect = new Runnable() {
+            @Override
+            public void run() {
+                sendRequestWifiList(null);
+            }
+        };
+        RetransmissionTimer timer = new RetransmissionTimer(intervalMS);
+        long delay = 0;
+        for (int i = 0; i < attempts; ++i) {
+            detectTasks.add(scheduler.schedule(detect, delay));
+            delay += timer.nextDelay(random, retransmitJitter);
+            timer.backoff();
+        }
+        detectTasks.add(scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                detectTasks.clear();
+                notifyChangesFinished();
+            }
+        }, delay));
         return true;
     }
 
@@ -354,15 +769,22 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
      * Use default values for interval and attempts and the singleton instance of BootstrapData.
      */
     public boolean bootstrapDevices() {
-        return bootstrapDevices(2000, 5, BootstrapData.instance());
+        return bootstrapDevices(DEFAULT_BOOTSTRAP_INTERVAL_MS, DEFAULT_BOOTSTRAP_ATTEMPTS, BootstrapData.instance());
     }
 
     /**
      * Start bootstrapping devices which are listed in the device list and which
-     * are in bound mode.
+     * are in bound mode. Every device gets its own attempts, which end as soon as the
+     * device confirms the bootstrap data. The listeners are notified when all devices
+     * confirmed or ran out of attempts. Pending attempts of an earlier call are cancelled.
+     * <p/>
+     * The delay between the attempts for a device is its retransmission timeout: It follows
+     * the measured round trip times and doubles for every unanswered attempt.
      *
-     * @param intervalMS Interval between bootstrap attempts.
+     * @param intervalMS Delay between bootstrap attempts until round trip times are known.
      * @param attempts   How many attempts? Should be at least 1.
+     * @throws RuntimeException If the data is incomplete or too large, see
+     *                          {@see BootstrapData#getPayload()}.
      */
     public boolean bootstrapDevices(int intervalMS, int attempts, BootstrapData data) {
         if (!network.isValid()) {
@@ -370,17 +792,27 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
             return false;
         }
 
+        // Serialized once for all devices and attempts
+        BootstrapData.Payload payload = data.getPayload();
+
+        for (DeviceRetry retry : retries.values())
+            retry.cancel();
+        retries.clear();
+        if (bootstrapFinishedTask != null)
+            bootstrapFinishedTask.cancel();
+        bootstrapFinishedTask = null;
+
         for (int i = 0; i < devices.size(); i++) {
             BootstrapDevice device = devices.get(i);
             device.setMode(DeviceMode.NotInRange);
-            for (BootstrapDeviceUpdateListener listener : changeListener) {
-                listener.deviceUpdated(i, false);
-            }
+            notifyDeviceUpdated(i, false);
+            DeviceRetry retry = new DeviceRetry(device, payload, intervalMS, attempts);
+            retries.put(device, retry);
+            retry.restart();
         }
 
-        for (int i = 0; i < attempts; ++i)
-            handler.sendMessageDelayed(handler.obtainMessage(MSG_BOOTSTRAP, data), i * intervalMS);
-        handler.sendEmptyMessageDelayed(MSG_BOOTSTRAP_FINISHED, attempts * intervalMS);
+        bootstrapping = true;
+        checkBootstrapFinished();
         return true;
     }
 
@@ -397,41 +829,46 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
         // the real key is random junk. This ensures that a network sniffer is not
         // able to determine the length of the key.
         sendStream.write(bound_key_len);
-        sendStream.write(bound_key, 0, BST_CRYPTO_KEY_MAX_SIZE);
+        sendStream.write(bound_key, 0, bound_key_len);
+        entropy.nextBytes(padding, 0, BST_CRYPTO_KEY_MAX_SIZE - bound_key_len);
+        sendStream.write(padding, 0, BST_CRYPTO_KEY_MAX_SIZE - bound_key_len);
         return encryptCrcAndSend(device, true);
     }
 
-    private boolean bootstrapDevice(@NonNull BootstrapDevice device, @NonNull BootstrapData data) {
+    boolean bootstrapDevice(@NonNull BootstrapDevice device, @NonNull BootstrapData.Payload data) {
         initPacket(SendCommandEnum.CMD_SET_DATA);
-        int written = data.addDataToStream(sendStream);
-        for (int i = written; i < BST_STORAGE_RAM_SIZE; ++i) {
-            sendStream.write(random.nextInt());
-        }
+        data.writeTo(sendStream);
         // fill until BST_STORAGE_RAM_SIZE
-        return encryptCrcAndSend(device, true);
+        entropy.nextBytes(padding, 0, BST_STORAGE_RAM_SIZE - data.size());
+        sendStream.write(padding, 0, BST_STORAGE_RAM_SIZE - data.size());
+
+        Executor executor = encryptExecutor;
+        if (executor == null)
+            return encryptCrcAndSend(device, true);
+
+        // Only the copy of the packet happens on the protocol thread
+        final byte[] packet = sendStream.toPooledByteArray();
+        final BootstrapDevice target = device;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    encryptCrcAndSend(target, packet, true);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return encryptCrcAndSend(device, packet, true);
+        }
+        return true;
     }
 
     @Override
     public void parsePacket(byte[] message, int length, InetSocketAddress peer) {
-        if (!isHeaderValid(message)) {
+        if (!isHeaderValid(message, length)) {
             Log.e(TAG, "Header not equal!");
             return;
         }
 
-//        String str = "byte msg[] = ";
-//        for(byte b: message)
-//            str += String.valueOf((int)b)+",";
-//        Log.w(TAG, str);
-//        str = "byte app_nonce = ";
-//        for(byte b: app_nonce)
-//            str += String.valueOf((int)b)+",";
-//        Log.w(TAG, str);
-//        str = "byte unbound_key_len = ";
-//        for(int i=0;i<unbound_key_len;++i)
-//            str += String.valueOf((int)unbound_key[i])+",";
-//        Log.w(TAG, str);
-
-        byte crc[] = extractCRC(message);
         DeviceState state = extractState(message);
 
         if (state == null) {
@@ -441,186 +878,116 @@ public class BootstrapCore implements IUDPNetworkReceive, Handler.Callback {
 
         ////////// Corresponding device //////////
         // If there is a device known with this IP, find it.
-        int index = -1;
-        BootstrapDevice device = null;
-        for (int i = 0; i < devices.size(); i++) {
-            BootstrapDevice d = devices.get(i);
-            if (Arrays.equals(d.address.getAddress(), peer.getAddress().getAddress())) {
-                device = d;
-                index = i;
-                break;
-            }
-        }
-
-        if (device == null) {
+        int index = devices.indexOfAddress(peer.getAddress());
+        BootstrapDevice device;
+        if (index != -1) {
+            device = devices.get(index);
+        } else {
             device = new BootstrapDevice(peer.getAddress());
         }
 
         ////////// Unencrypted hello message without payload //////////
         if (state == DeviceState.STATE_HELLO || state == DeviceState.STATE_BOOTSTRAP_OK) {
             device.updateLastSeen();
-            Message msg = handler.obtainMessage(MSG_DEVICE_ONLINE, index, 0, device);
-            handler.sendMessage(msg);
+            responses.addOnline(index, device, state);
             return;
         }
 
-        ////////// Decrypt and CRC //////////
-        byte decrypted_msg[] = new byte[length - protocol_header_len];
-
-        boolean is_unbound = true;
-        if (device.getMode() == DeviceMode.Unbound) {
-            crypto.cipherInit(unbound_key, 0, unbound_key_len, app_nonce, 0, app_nonce.length);
-        } else {
-            crypto.cipherInit(bound_key, 0, bound_key_len, app_nonce, 0, app_nonce.length);
-            is_unbound = false;
-        }
-        crypto.cipherDecrypt(message, protocol_header_len, length - protocol_header_len,
-                decrypted_msg, 0);
-
-        byte computed_crc[] = Checksums.CheckSumAsBytes(Checksums.GenerateChecksumCRC16(decrypted_msg, 0));
-
-        if (!Arrays.equals(computed_crc, crc)) {
-            is_unbound = !is_unbound;
-            if (is_unbound) {
-                crypto.cipherInit(unbound_key, 0, unbound_key_len, app_nonce, 0, app_nonce.length);
-            } else {
-                crypto.cipherInit(bound_key, 0, bound_key_len, app_nonce, 0, app_nonce.length);
-            }
-            crypto.cipherDecrypt(message, protocol_header_len, length - protocol_header_len,
-                    decrypted_msg, 0);
-            computed_crc = Checksums.CheckSumAsBytes(Checksums.GenerateChecksumCRC16(decrypted_msg, 0));
-        }
-
-        if (!Arrays.equals(computed_crc, crc)) {
-            Log.e(TAG, "CRC not accepted!");
-            return;
-        }
-
-        ////////// Device nonce, uid //////////
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(decrypted_msg, 0, decrypted_msg.length);
-
-        byte[] device_nonce = new byte[BST_NONCE_SIZE];
-
-        if (inputStream.read(device_nonce, 0, BST_NONCE_SIZE) != BST_NONCE_SIZE) {
-            Log.e(TAG, "Welcome message to short! Nonce is missing. " + String.valueOf(length));
-            return;
-        }
-
-        byte[] uid = new byte[BST_UID_SIZE];
-
-        if (inputStream.read(uid, 0, BST_UID_SIZE) != BST_UID_SIZE) {
-            Log.e(TAG, "Welcome message to short! uid is missing. " + String.valueOf(length));
-            return;
-        }
-
-        ////////// wifi_list_size_in_bytes, wifi_list_entries //////////
-        if (inputStream.available() < 3) {
-            Log.e(TAG, "Welcome message to short! wifi list info missing. " + String.valueOf(length));
+        String error = decodePacket(decoder.get(), device, state, message, length);
+        if (error != null) {
+            Log.e(TAG, error);
             return;
         }
 
-        int external_confirmation_state = inputStream.read();
-        int wifi_list_size_in_bytes = inputStream.read();
-        int wifi_list_entries = inputStream.read();
-
-        if (inputStream.available() < wifi_list_size_in_bytes) {
-            Log.e(TAG, "Welcome message to short! wifi_list_size_in_bytes wrong. " + String.valueOf(length));
-            return;
-        }
-
-        ////////// wifi list //////////
-        WirelessNetwork currentNetworkInList = null;
-        List<WirelessNetwork> list = new ArrayList<>();
-
-        while (wifi_list_entries-- > 0 && inputStream.available() >= 3) {
-            WirelessNetwork network = new WirelessNetwork();
-            network.setStrength(inputStream.read());
-            if (network.strength < 0 || network.strength > 100) {
-                Log.e(TAG, "Parsing error for RSP_WIFI_LIST " + String.valueOf(network.strength));
-                break;
-            }
-
-            int temp = inputStream.read();
-            if (temp > 0 && temp < WirelessNetwork.EncryptionMode.values().length)
-                network.mode = WirelessNetwork.EncryptionMode.values()[temp];
-            else
-                network.mode = WirelessNetwork.EncryptionMode.Unknown;
-
-            // Look for next \0 character
-            temp = 0;
-            inputStream.mark(0);
-            while (inputStream.available() > 0) {
-                ++temp;
-                if (inputStream.read() == 0)
-                    break;
-            }
-            inputStream.reset();
-
-            if (temp == 0)
-                break;
-
-            byte ssid_bytes[] = new byte[temp - 1];
-            if (inputStream.read(ssid_bytes, 0, ssid_bytes.length) != ssid_bytes.length ||
-                    inputStream.read() != 0) {
-                Log.e(TAG, "Parsing error for RSP_WIFI_LIST");
-                break;
-            }
-            network.ssid = new String(ssid_bytes, 0, ssid_bytes.length, Charset.defaultCharset());
-            list.add(network);
-
-            wifi_list_size_in_bytes -= temp + 2;
-
-            if (network.ssid.equals(current_ssid)) {
-                currentNetworkInList = network;
-            }
-        }
+        responses.addUpdated(index, device);
+    }
 
-        if (wifi_list_size_in_bytes != 0) {
-            Log.e(TAG, "Could not parse wifi list");
-            return;
-        }
+    /**
+     * Guess the key of a response. Devices that sent an encrypted response before use the same
+     * key again, unless they just got bound. Their responses start with the same nonce and uid,
+     * so decrypting these few bytes is enough to detect a key change.
+     *
+     * @param prefix The response prefix of the device, null if it did not send an encrypted
+     *               response yet. The mode of the device decides then.
+     * @return Return true if the unbound key should be tried first.
+     */
+    private boolean selectKey(PacketDecoder decoder, BootstrapDevice device, byte[] prefix,
+                              byte[] message, int payload_len) {
+        if (prefix == null)
+            return device.getMode() == DeviceMode.Unbound;
+
+        boolean is_unbound = device.isLastKeyUnbound();
+        if (is_unbound ?
+                decoder.trialDecrypt(unbound_key, unbound_key_len, app_nonce, message, protocol_header_len, payload_len, prefix) :
+                decoder.trialDecrypt(bound_key, bound_key_len, app_nonce, message, protocol_header_len, payload_len, prefix))
+            return is_unbound;
+
+        // The other key, or the device rebooted with a new nonce. A failed CRC check will try both.
+        return !is_unbound;
+    }
 
-        ////////// name_or_log //////////
-        int temp = 0;
-        inputStream.mark(0);
-        while (inputStream.available() > 0) {
-            ++temp;
-            if (inputStream.read() == 0)
-                break;
-        }
-        inputStream.reset();
+    /**
+     * @return Return the amount of responses of known devices that were decrypted with the
+     * key selected by the trial decryption.
+     */
+    public long getKeyHintHits() {
+        return keyHintHits.get();
+    }
 
-        byte[] name_or_log;
-        if (temp > 0) {
-            name_or_log = new byte[temp - 1];
+    /**
+     * @return Return the amount of responses of known devices that needed a second complete
+     * decryption with the other key.
+     */
+    public long getKeyHintMisses() {
+        return keyHintMisses.get();
+    }
 
-            if (inputStream.read(name_or_log, 0, name_or_log.length) != name_or_log.length) {
-                Log.e(TAG, "Welcome message to short! name_or_log is missing. " + String.valueOf(length));
-                return;
-            }
-        } else
-            name_or_log = new byte[0];
+    /**
+     * Decrypt, check and parse an encrypted device response and apply it to the given device.
+     * Works on the scratch buffer of the decoder and does not allocate if the device is known
+     * and its response did not change.
+     *
+     * @return Return null if the packet was accepted, otherwise the reason. Does not log, the
+     * caller decides.
+     */
+    String decodePacket(PacketDecoder decoder, BootstrapDevice device, DeviceState state,
+                         byte[] message, int length) {
+        ////////// Decrypt and CRC //////////
+        int crc = extractCRCValue(message);
+        int payload_len = length - protocol_header_len;
+
+        // Only responses with a trial decryption count as hits or misses of the key hint
+        byte[] prefix = device.getResponsePrefix();
+        boolean is_unbound = selectKey(decoder, device, prefix, message, payload_len);
+        int computed_crc = is_unbound ?
+                decoder.decrypt(unbound_key, unbound_key_len, app_nonce, message, protocol_header_len, payload_len) :
+                decoder.decrypt(bound_key, bound_key_len, app_nonce, message, protocol_header_len, payload_len);
+
+        if (computed_crc != crc) {
+            if (prefix != null)
+                keyHintMisses.incrementAndGet();
+            is_unbound = !is_unbound;
+            computed_crc = is_unbound ?
+                    decoder.decrypt(unbound_key, unbound_key_len, app_nonce, message, protocol_header_len, payload_len) :
+                    decoder.decrypt(bound_key, bound_key_len, app_nonce, message, protocol_header_len, payload_len);
+        } else if (prefix != null)
+            keyHintHits.incrementAndGet();
 
-        device.setWirelessNetwork(currentNetworkInList);
+        if (computed_crc != crc)
+            return "CRC not accepted!";
 
-        if (state == DeviceState.STATE_OK)
-            device.setName(new String(name_or_log));
-        else
-            device.setErrorMessage(new String(name_or_log));
+        ////////// Parse //////////
+        String error = decoder.parse(current_ssid_bytes);
+        if (error != null)
+            return error + " " + String.valueOf(length);
 
         if (is_unbound) {
-            device.updateState(new String(uid), DeviceMode.Unbound,
-                    state, list,
-                    device_nonce, unbound_key, unbound_key_len, external_confirmation_state);
+            device.updateState(decoder, DeviceMode.Unbound, state, unbound_key, unbound_key_len);
             device.setMode(DeviceMode.Binding);
         } else {
-            device.updateState(new String(uid), DeviceMode.Bound,
-                    state, list,
-                    device_nonce, bound_key, bound_key_len, external_confirmation_state);
-
+            device.updateState(decoder, DeviceMode.Bound, state, bound_key, bound_key_len);
         }
-        Message msg = handler.obtainMessage(MSG_BIND_OR_UPDATE, index, 0, device);
-        handler.sendMessage(msg);
+        return null;
     }
 
     public void setUnboundKey(byte[] unboundKey) {
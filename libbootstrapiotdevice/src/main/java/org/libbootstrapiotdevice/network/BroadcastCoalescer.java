@@ -0,0 +1,79 @@
+package org.libbootstrapiotdevice.network;
+
+import java.util.Arrays;
+
+/**
+ * Drops broadcast packets that are equal to a broadcast packet that has been send within
+ * the coalescing window. Detecting devices results in a HELLO per device, which are all the
+ * same if they are broadcasted. A few recently send packets are remembered.
+ * <p/>
+ * Only used by the send thread, not thread safe.
+ */
+class BroadcastCoalescer {
+    private static final int HISTORY = 8;
+
+    private final byte[][] payloads = new byte[HISTORY][];
+    private final int[] lengths = new int[HISTORY];
+    private final int[] ports = new int[HISTORY];
+    private final long[] sentAt = new long[HISTORY];
+    private int next = 0;
+    private long windowNanos;
+    private long coalesced = 0;
+
+    /**
+     * @param windowMS Equal broadcasts within this time are send once. 0 disables coalescing.
+     */
+    BroadcastCoalescer(int windowMS) {
+        setWindow(windowMS);
+    }
+
+    void setWindow(int windowMS) {
+        windowNanos = windowMS * 1000000L;
+    }
+
+    /**
+     * @return Return true if the packet is a duplicate and should be dropped. Otherwise the
+     * packet is remembered as send at the given time.
+     */
+    boolean isDuplicate(int port, byte[] data, long nowNanos) {
+        if (windowNanos <= 0)
+            return false;
+        for (int i = 0; i < HISTORY; ++i) {
+            if (payloads[i] == null || ports[i] != port || lengths[i] != data.length ||
+                    nowNanos - sentAt[i] > windowNanos)
+                continue;
+            if (regionEquals(payloads[i], data)) {
+                ++coalesced;
+                return true;
+            }
+        }
+
+        int slot = next;
+        next = (next + 1) % HISTORY;
+        if (payloads[slot] == null || payloads[slot].length < data.length)
+            payloads[slot] = new byte[Math.max(data.length, 64)];
+        System.arraycopy(data, 0, payloads[slot], 0, data.length);
+        lengths[slot] = data.length;
+        ports[slot] = port;
+        sentAt[slot] = nowNanos;
+        return false;
+    }
+
+    private static boolean regionEquals(byte[] remembered, byte[] data) {
+        for (int i = 0; i < data.length; ++i)
+            if (remembered[i] != data[i])
+                return false;
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(payloads, null);
+    }
+
+    /**
+     * @return Return the amount of dropped duplicates.
+     */
+    long getCoalesced() {
+        return coalesced;
+    }
+}
@@ -2,8 +2,34 @@ package org.libbootstrapiotdevice.network;
 
 /**
  * Checksum methods.
+ * <p/>
+ * The CRC16 is the CCITT variant of the firmware (polynomial 0x1021, initial value 0xFFFF,
+ * no reflection, no final xor). It is computed with slicing-by-8: Eight 256 entry tables,
+ * where table k contains the checksum of a byte followed by k zero bytes. Eight input bytes
+ * are then processed with eight independent table lookups instead of 64 bit steps.
  */
 public class Checksums {
+    static final int CRC16_INIT = 0xFFFF;
+    private static final int CRC16_POLYNOMIAL = 0x1021; // 0001 0000 0010 0001  (0, 5, 12)
+
+    // Table k starts at k*256
+    private static final int[] CRC16_TABLE = new int[8 * 256];
+
+    static {
+        for (int b = 0; b < 256; ++b) {
+            int crc = b << 8;
+            for (int i = 0; i < 8; ++i)
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ CRC16_POLYNOMIAL : crc << 1;
+            CRC16_TABLE[b] = crc & 0xffff;
+        }
+        for (int k = 1; k < 8; ++k) {
+            for (int b = 0; b < 256; ++b) {
+                int crc = CRC16_TABLE[(k - 1) * 256 + b];
+                CRC16_TABLE[k * 256 + b] = ((crc << 8) ^ CRC16_TABLE[crc >>> 8]) & 0xffff;
+            }
+        }
+    }
+
     static byte[] CheckSumAsBytes(int crc16) {
         byte computed_crc[] = {0, 0};
         computed_crc[1] = (byte) (crc16 & 0xff);
@@ -17,22 +43,49 @@ public class Checksums {
      * @return Return the checksum as int16.
      */
     static int GenerateChecksumCRC16(byte bytes[], int offset) {
-        int crc = 0xFFFF;          // initial value
-        int polynomial = 0x1021;   // 0001 0000 0010 0001  (0, 5, 12)
-        int crc_byte;
-
-        for (int j = offset; j < bytes.length; ++j) {
-            crc_byte = bytes[j];
-
-            for (int i = 0; i < 8; i++) {
-                boolean bit = ((crc_byte >> (7 - i) & 1) == 1);
-                boolean c15 = ((crc >> 15 & 1) == 1);
-                crc <<= 1;
-                if (c15 ^ bit) crc ^= polynomial;
-            }
-        }
+        return UpdateChecksumCRC16(CRC16_INIT, bytes, offset, bytes.length - offset);
+    }
 
+    /**
+     * @param bytes  The input data.
+     * @param offset Offset for input data.
+     * @param length Length of the input data, starting at offset.
+     * @return Return the checksum as int16.
+     */
+    static int GenerateChecksumCRC16(byte bytes[], int offset, int length) {
+        return UpdateChecksumCRC16(CRC16_INIT, bytes, offset, length);
+    }
+
+    /**
+     * Continue a checksum with more data. Start with {@see #CRC16_INIT}, the checksum of
+     * data that is fed in several parts equals the checksum of the concatenated data.
+     *
+     * @param crc    The checksum so far.
+     * @param bytes  The input data.
+     * @param offset Offset for input data.
+     * @param length Length of the input data, starting at offset.
+     * @return Return the updated checksum as int16.
+     */
+    static int UpdateChecksumCRC16(int crc, byte bytes[], int offset, int length) {
+        final int[] t = CRC16_TABLE;
+        int j = offset;
+        final int end = offset + length;
         crc &= 0xffff;
-        return crc;
+
+        for (final int end8 = end - 7; j < end8; j += 8) {
+            crc = t[7 * 256 + (((crc >>> 8) ^ bytes[j]) & 0xff)]
+                    ^ t[6 * 256 + ((crc ^ bytes[j + 1]) & 0xff)]
+                    ^ t[5 * 256 + (bytes[j + 2] & 0xff)]
+                    ^ t[4 * 256 + (bytes[j + 3] & 0xff)]
+                    ^ t[3 * 256 + (bytes[j + 4] & 0xff)]
+                    ^ t[2 * 256 + (bytes[j + 5] & 0xff)]
+                    ^ t[256 + (bytes[j + 6] & 0xff)]
+                    ^ t[bytes[j + 7] & 0xff];
+        }
+
+        for (; j < end; ++j)
+            crc = ((crc << 8) ^ t[((crc >>> 8) ^ bytes[j]) & 0xff]) & 0xffff;
+
+        return crc & 0xffff;
     }
 }
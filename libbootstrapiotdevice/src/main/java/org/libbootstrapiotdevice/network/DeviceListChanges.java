@@ -0,0 +1,134 @@
+package org.libbootstrapiotdevice.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes of the device list since the last batch, as ranges in the order they happened.
+ * Applied in order, the ranges transform the previous snapshot into the current one, like the
+ * notifyItemRange*() calls of a RecyclerView adapter. Adjacent changes of the same kind are
+ * merged into one range while they are recorded, for example devices added one after another
+ * or removed from the end of the list to the beginning.
+ */
+public class DeviceListChanges {
+    public static final int INSERTED = 0;
+    public static final int CHANGED = 1;
+    public static final int REMOVED = 2;
+
+    public static class Range {
+        public final int type;
+        public int start;
+        public int count;
+
+        Range(int type, int start, int count) {
+            this.type = type;
+            this.start = start;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return (type == INSERTED ? "inserted " : type == CHANGED ? "changed " : "removed ") + start + "+" + count;
+        }
+    }
+
+    private final List<Range> ranges = new ArrayList<>();
+    private boolean reset = false;
+    // Single changes recorded, before merging
+    private int changes = 0;
+
+    void inserted(int index) {
+        add(INSERTED, index);
+    }
+
+    void changed(int index) {
+        add(CHANGED, index);
+    }
+
+    void removed(int index) {
+        add(REMOVED, index);
+    }
+
+    /**
+     * All devices have been removed. The ranges before are meaningless, receivers have to
+     * reload the whole list.
+     */
+    void removedAll() {
+        ++changes;
+        reset = true;
+        ranges.clear();
+    }
+
+    /**
+     * @return Return true if the whole list changed and has to be reloaded, the ranges are empty.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<Range> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
+    /**
+     * @return Return the amount of recorded single changes, before they were merged into ranges.
+     */
+    public int getChangeCount() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return !reset && ranges.isEmpty();
+    }
+
+    private void add(int type, int index) {
+        ++changes;
+        if (reset)
+            return;
+        Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && merge(last, type, index))
+            return;
+        ranges.add(new Range(type, index, 1));
+    }
+
+    private static boolean merge(Range last, int type, int index) {
+        int end = last.start + last.count;
+        if (last.type != type) {
+            // A device that has just been inserted is shown with its current state anyway
+            return type == CHANGED && last.type == INSERTED && index >= last.start && index < end;
+        }
+        switch (type) {
+            case INSERTED:
+                if (index < last.start || index > end)
+                    return false;
+                ++last.count;
+                return true;
+            case CHANGED:
+                if (index >= last.start && index < end)
+                    return true;
+                if (index == end) {
+                    ++last.count;
+                    return true;
+                }
+                if (index == last.start - 1) {
+                    --last.start;
+                    ++last.count;
+                    return true;
+                }
+                return false;
+            default:
+                // The following devices moved to the removed index
+                if (index == last.start) {
+                    ++last.count;
+                    return true;
+                }
+                if (index == last.start - 1) {
+                    --last.start;
+                    ++last.count;
+                    return true;
+                }
+                return false;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.libbootstrapiotdevice.network;
+
+import org.libbootstrapiotdevice.BootstrapDevice;
+import org.libbootstrapiotdevice.WirelessNetwork;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the changes between two device lists, as {@see DeviceListChanges} ranges.
+ * <p/>
+ * Devices are identified by their address: A device may be replaced by a new instance with
+ * the same address in the list. Devices are mutable, whether a device changed is decided by
+ * a stamp of its shown properties, taken when the old list was computed.
+ * <p/>
+ * BootstrapCore only appends, replaces and removes devices, the relative order of the
+ * remaining devices never changes. The lists are therefore compared in one pass in O(n),
+ * instead of a general longest common subsequence. Moved devices (not produced by
+ * BootstrapCore) are reported as removed and inserted.
+ */
+public class DeviceListDiff {
+    public final DeviceListChanges changes = new DeviceListChanges();
+    // Stamps of the new list
+    public final int[] stamps;
+
+    private DeviceListDiff(int size) {
+        stamps = new int[size];
+    }
+
+    /**
+     * A hash of the properties of a device that are shown in a device list.
+     */
+    public static int stamp(BootstrapDevice device) {
+        WirelessNetwork network = device.getWirelessNetwork();
+        return Arrays.hashCode(new Object[]{device.uid, device.device_name, device.getMode(), device.getState(),
+                device.isSelected(), device.getErrorMessage(), network == null ? -1 : network.strength});
+    }
+
+    /**
+     * @return Return the stamps of all devices in the list.
+     */
+    public static int[] stamps(List<BootstrapDevice> devices) {
+        int[] stamps = new int[devices.size()];
+        for (int i = 0; i < stamps.length; ++i)
+            stamps[i] = stamp(devices.get(i));
+        return stamps;
+    }
+
+    private static Object key(BootstrapDevice device) {
+        InetAddress address = device.address;
+        return address == null ? device : address;
+    }
+
+    /**
+     * @param old       The old list
+     * @param oldStamps The stamps of the old list, taken when the old list was shown.
+     * @param now       The new list
+     * @return Return the changes and the stamps of the new list.
+     */
+    public static DeviceListDiff calculate(List<BootstrapDevice> old, int[] oldStamps, List<BootstrapDevice> now) {
+        DeviceListDiff diff = new DeviceListDiff(now.size());
+        Map<Object, Integer> newIndex = new HashMap<>(now.size() * 2);
+        for (int j = 0; j < now.size(); ++j) {
+            newIndex.put(key(now.get(j)), j);
+            diff.stamps[j] = stamp(now.get(j));
+        }
+        // position: Index in the list after the changes so far
+        int i = 0, j = 0, position = 0;
+        while (i < old.size() || j < now.size()) {
+            if (i < old.size()) {
+                Integer match = newIndex.get(key(old.get(i)));
+                // Gone, or moved before the current position
+                if (match == null || match < j) {
+                    diff.changes.removed(position);
+                    ++i;
+                    continue;
+                }
+                if (match == j) {
+                    if (oldStamps[i] != diff.stamps[j])
+                        diff.changes.changed(position);
+                    ++i;
+                    ++j;
+                    ++position;
+                    continue;
+                }
+            }
+            // New, or moved from a later position of the old list: Removed when reached there
+            diff.changes.inserted(position);
+            ++j;
+            ++position;
+        }
+        return diff;
+    }
+}
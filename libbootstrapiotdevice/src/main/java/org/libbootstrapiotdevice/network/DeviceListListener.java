@@ -0,0 +1,9 @@
+package org.libbootstrapiotdevice.network;
+
+/**
+ * Get notified of device list changes in batches: All changes of one run of the protocol
+ * thread are delivered together, with an immutable snapshot of the list after the changes.
+ */
+public interface DeviceListListener {
+    void devicesChanged(DeviceRegistry.Snapshot snapshot, DeviceListChanges changes);
+}
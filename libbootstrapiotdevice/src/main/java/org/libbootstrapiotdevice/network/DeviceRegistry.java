@@ -0,0 +1,239 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.Nullable;
+
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+import java.net.InetAddress;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The device list of {@see org.libbootstrapiotdevice.network.BootstrapCore}. Behaves like an
+ * ordinary list with stable indices (the indices reported to
+ * {@see BootstrapDeviceUpdateListener}), but additionally maintains a hash index over the
+ * device IP addresses and over the device uids for O(1) lookups on the receive thread.
+ * <p/>
+ * The address index is an open addressing table of longs. Each slot packs the 32 bit address
+ * key in the upper half and the list index + 1 in the lower half, so that a lookup neither
+ * allocates nor dereferences devices with a different address key. The address key is
+ * {@see InetAddress#hashCode()}: For IPv4 this is the packed address itself and IPv6
+ * addresses are hashed without copying their 16 bytes (in contrast to getAddress()).
+ * <p/>
+ * Removing or replacing devices shifts indices, the index is rebuild lazily on the next
+ * lookup in that case. All methods are synchronized, the list is modified on the handler
+ * thread while lookups happen on the network thread.
+ * <p/>
+ * Other threads, like the UI, should only read {@see #snapshot()}s: Immutable copies of the
+ * list with a version that increases with every modification. A snapshot is only copied once
+ * after a modification and shared by all readers until the next one.
+ */
+public class DeviceRegistry extends AbstractList<BootstrapDevice> implements RandomAccess {
+    private static final int INITIAL_SLOTS = 16;
+
+    private final ArrayList<BootstrapDevice> devices = new ArrayList<>();
+    private final Map<String, Integer> uidIndex = new HashMap<>();
+    private long[] addressSlots = new long[INITIAL_SLOTS];
+    private int usedSlots = 0;
+    private boolean indexDirty = false;
+    private long version = 0;
+    private Snapshot snapshot = new Snapshot(new BootstrapDevice[0], 0);
+
+    /**
+     * An immutable copy of the device list. The devices themselves are not copied.
+     */
+    public static final class Snapshot extends AbstractList<BootstrapDevice> implements RandomAccess {
+        public final long version;
+        private final BootstrapDevice[] devices;
+
+        private Snapshot(BootstrapDevice[] devices, long version) {
+            this.devices = devices;
+            this.version = version;
+        }
+
+        @Override
+        public BootstrapDevice get(int index) {
+            return devices[index];
+        }
+
+        @Override
+        public int size() {
+            return devices.length;
+        }
+    }
+
+    private static int addressKey(InetAddress address) {
+        return address.hashCode();
+    }
+
+    private static int slotFor(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return Return an immutable copy of the current list.
+     */
+    public synchronized Snapshot snapshot() {
+        if (snapshot.version != version)
+            snapshot = new Snapshot(devices.toArray(new BootstrapDevice[devices.size()]), version);
+        return snapshot;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized BootstrapDevice get(int index) {
+        return devices.get(index);
+    }
+
+    @Override
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    @Override
+    public synchronized void add(int index, BootstrapDevice device) {
+        devices.add(index, device);
+        ++version;
+        if (index != devices.size() - 1) {
+            indexDirty = true;
+            return;
+        }
+        if (!indexDirty)
+            indexDevice(device, index);
+    }
+
+    @Override
+    public synchronized BootstrapDevice set(int index, BootstrapDevice device) {
+        BootstrapDevice old = devices.set(index, device);
+        ++version;
+        indexDirty = true;
+        return old;
+    }
+
+    @Override
+    public synchronized BootstrapDevice remove(int index) {
+        BootstrapDevice old = devices.remove(index);
+        ++version;
+        indexDirty = true;
+        return old;
+    }
+
+    @Override
+    public synchronized void clear() {
+        devices.clear();
+        ++version;
+        clearIndex();
+    }
+
+    /**
+     * Find a device by its IP address.
+     *
+     * @param address The peer address. May be null.
+     * @return Return the list index of the device or -1.
+     */
+    public synchronized int indexOfAddress(@Nullable InetAddress address) {
+        if (address == null)
+            return -1;
+        if (indexDirty)
+            rebuildIndex();
+
+        int key = addressKey(address);
+        int mask = addressSlots.length - 1;
+        for (int slot = slotFor(key, mask); ; slot = (slot + 1) & mask) {
+            long entry = addressSlots[slot];
+            if (entry == 0)
+                return -1;
+            if ((int) (entry >>> 32) == key) {
+                int index = (int) entry - 1;
+                if (address.equals(devices.get(index).address))
+                    return index;
+            }
+        }
+    }
+
+    /**
+     * Find a device by its uid. The uid of a device is only known after its first
+     * encrypted response, call {@see #updateUid(int)} whenever it changes.
+     *
+     * @param uid The device uid.
+     * @return Return the list index of the device or -1.
+     */
+    public synchronized int indexOfUid(@Nullable String uid) {
+        if (uid == null || uid.isEmpty())
+            return -1;
+        if (indexDirty)
+            rebuildIndex();
+
+        Integer index = uidIndex.get(uid);
+        if (index == null || !uid.equals(devices.get(index).uid))
+            return -1;
+        return index;
+    }
+
+    /**
+     * Add the current uid of the device at the given index to the uid index.
+     *
+     * @param index The list index.
+     */
+    public synchronized void updateUid(int index) {
+        if (indexDirty)
+            return;
+        String uid = devices.get(index).uid;
+        if (uid != null && !uid.isEmpty())
+            uidIndex.put(uid, index);
+    }
+
+    private void clearIndex() {
+        if (addressSlots.length > INITIAL_SLOTS && devices.isEmpty())
+            addressSlots = new long[INITIAL_SLOTS];
+        else
+            Arrays.fill(addressSlots, 0);
+        usedSlots = 0;
+        uidIndex.clear();
+        indexDirty = false;
+    }
+
+    private void rebuildIndex() {
+        clearIndex();
+        for (int i = 0; i < devices.size(); ++i)
+            indexDevice(devices.get(i), i);
+    }
+
+    private void indexDevice(BootstrapDevice device, int index) {
+        if (device.uid != null && !device.uid.isEmpty())
+            uidIndex.put(device.uid, index);
+
+        if (device.address == null)
+            return;
+
+        // Keep the load factor below 0.5
+        if ((usedSlots + 1) * 2 > addressSlots.length) {
+            long[] old = addressSlots;
+            addressSlots = new long[old.length * 2];
+            int mask = addressSlots.length - 1;
+            for (long entry : old) {
+                if (entry != 0)
+                    insertSlot(entry, mask);
+            }
+        }
+
+        int key = addressKey(device.address);
+        insertSlot(((long) key << 32) | ((index + 1) & 0xffffffffL), addressSlots.length - 1);
+        ++usedSlots;
+    }
+
+    private void insertSlot(long entry, int mask) {
+        int slot = slotFor((int) (entry >>> 32), mask);
+        while (addressSlots[slot] != 0)
+            slot = (slot + 1) & mask;
+        addressSlots[slot] = entry;
+    }
+}
@@ -0,0 +1,103 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.Nullable;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Random bytes for nonces and padding. The bytes are pulled from a SecureRandom in blocks of
+ * {@see #BLOCK_SIZE} bytes and copied out of the block with System.arraycopy, instead of
+ * asking the random generator for every few bytes.
+ * <p/>
+ * With a refill executor, the next block is generated in the background while the current
+ * one is used. Without, a new block is generated synchronously when the current one is
+ * used up. Thread safe.
+ */
+public class EntropySource {
+    public static final int BLOCK_SIZE = 4096;
+    private final Random source;
+    @Nullable
+    private final Executor refillExecutor;
+    private byte[] current = new byte[BLOCK_SIZE];
+    private int position = BLOCK_SIZE;
+    // A block filled in the background or null
+    private byte[] next = null;
+    private boolean refilling = false;
+
+    /**
+     * Creates an entropy source backed by a SecureRandom that refills synchronously.
+     */
+    public EntropySource() {
+        this(new SecureRandom(), null);
+    }
+
+    /**
+     * @param source         The random generator. Tests may use a deterministic one, together
+     *                       with no refill executor the bytes are served in the order
+     *                       the generator creates them.
+     * @param refillExecutor Generates the next block in the background. May be null.
+     */
+    public EntropySource(Random source, @Nullable Executor refillExecutor) {
+        this.source = source;
+        this.refillExecutor = refillExecutor;
+    }
+
+    /**
+     * Fill the given region with random bytes.
+     */
+    public synchronized void nextBytes(byte[] dest, int offset, int length) {
+        while (length > 0) {
+            if (position == current.length)
+                takeBlock();
+            int n = Math.min(length, current.length - position);
+            System.arraycopy(current, position, dest, offset, n);
+            // Served bytes do not stay in memory
+            Arrays.fill(current, position, position + n, (byte) 0);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void nextBytes(byte[] dest) {
+        nextBytes(dest, 0, dest.length);
+    }
+
+    private void takeBlock() {
+        position = 0;
+        if (next != null) {
+            byte[] used = current;
+            current = next;
+            next = null;
+            refill(used);
+            return;
+        }
+        source.nextBytes(current);
+        if (refillExecutor != null && !refilling)
+            refill(new byte[BLOCK_SIZE]);
+    }
+
+    private void refill(final byte[] block) {
+        if (refillExecutor == null || refilling)
+            return;
+        refilling = true;
+        try {
+            refillExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    source.nextBytes(block);
+                    synchronized (EntropySource.this) {
+                        next = block;
+                        refilling = false;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refilling = false;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.libbootstrapiotdevice.network;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the protocol steps on a single thread of a ScheduledExecutorService. Does not depend
+ * on android classes and can be used wherever no Looper is available.
+ */
+public class ExecutorScheduler implements ProtocolScheduler {
+    final static Logger LOGGER = Logger.getLogger(ExecutorScheduler.class.getName());
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a scheduler with its own thread. Call {@see #shutdown()} if not needed anymore.
+     */
+    public ExecutorScheduler() {
+        this(Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /**
+     * @param executor An executor with exactly one thread. Tasks have to run sequentially.
+     */
+    public ExecutorScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Task post(Runnable runnable) {
+        return schedule(runnable, 0);
+    }
+
+    @Override
+    public Task schedule(final Runnable runnable, long delayMS) {
+        // The executor would silently store an exception in the future
+        final ScheduledFuture<?> future = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Protocol task failed", e);
+                }
+            }
+        }, delayMS, TimeUnit.MILLISECONDS);
+        return new Task() {
+            @Override
+            public void cancel() {
+                future.cancel(false);
+            }
+        };
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Stop the thread. Pending tasks are not executed.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
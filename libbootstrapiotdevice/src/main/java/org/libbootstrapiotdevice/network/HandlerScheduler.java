@@ -0,0 +1,45 @@
+package org.libbootstrapiotdevice.network;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Runs the protocol steps on the thread of an android Looper, usually the main thread.
+ */
+public class HandlerScheduler implements ProtocolScheduler {
+    private final Handler handler;
+
+    public HandlerScheduler(Looper looper) {
+        handler = new Handler(looper);
+    }
+
+    @Override
+    public Task post(Runnable runnable) {
+        return schedule(runnable, 0);
+    }
+
+    @Override
+    public Task schedule(final Runnable runnable, long delayMS) {
+        // Handler.removeCallbacks() removes all posts of a runnable,
+        // every task gets its own instance to be cancelled independently.
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+            }
+        };
+        handler.postDelayed(task, delayMS);
+        return new Task() {
+            @Override
+            public void cancel() {
+                handler.removeCallbacks(task);
+            }
+        };
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
@@ -9,7 +9,8 @@ public interface IUDPNetwork {
     /**
      * Send given data to the destination you have set in {@see setDestination}.
      *
-     * @param data The data to send.
+     * @param data The data to send. The network takes over the array and gives it back
+     *             to {@see PacketBufferPool} after sending, the caller must not use it anymore.
      * @return Return true if a valid socket is opened and if a destionation
      * has been set up before.
      */
@@ -7,7 +7,8 @@ import java.net.InetSocketAddress;
  */
 public interface IUDPNetworkReceive {
     /**
-     * An incoming packet has been received. This method is called in the main thread context.
+     * An incoming packet has been received. This method is called on the network thread or,
+     * if a {@see ReceiveWorkerPool} is used, on one of its workers.
      *
      * @param message The message
      * @param length  Message length
@@ -0,0 +1,169 @@
+package org.libbootstrapiotdevice.network;
+
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects devices that have not been heard of for a given timeout. The deadlines are kept in
+ * a hashed timer wheel: {@see #WHEEL_SIZE} slots of linked entries, one slot per tick. A
+ * heartbeat only moves the deadline of the device forward, the entry stays in its slot.
+ * When the wheel reaches the slot, entries with a deadline in the future are moved to the slot
+ * of their new deadline and the others are expired. A heartbeat therefore costs O(1)
+ * independent of the amount of devices.
+ * <p/>
+ * The clock is the monotonic clock of the scheduler. Expired devices of one tick are reported
+ * together. The wheel only ticks while devices are tracked.
+ * <p/>
+ * Used on the protocol thread only, not thread safe.
+ */
+class LivenessTracker {
+    // A power of two, larger than TICKS_PER_TIMEOUT: A new deadline is always within one turn
+    static final int WHEEL_SIZE = 64;
+    static final int TICKS_PER_TIMEOUT = 16;
+
+    interface Callback {
+        /**
+         * @param devices The devices whose timeout expired in the last tick.
+         */
+        void expired(List<BootstrapDevice> devices);
+    }
+
+    private static class Entry {
+        // Null if the device has been removed, the entry is dropped when its slot is reached
+        BootstrapDevice device;
+        long deadline;
+        Entry next;
+    }
+
+    private final ProtocolScheduler scheduler;
+    private final Callback callback;
+    private final int timeoutMS;
+    private final int tickMS;
+    private final Entry[] wheel = new Entry[WHEEL_SIZE];
+    private final Map<BootstrapDevice, Entry> entries = new IdentityHashMap<>();
+    // Entries in the wheel, including removed ones
+    private int scheduled = 0;
+    // The last processed tick
+    private long currentTick;
+    private ProtocolScheduler.Task task;
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            task = null;
+            advance();
+        }
+    };
+
+    /**
+     * @param timeoutMS The silence after which a device expires. The expiry happens
+     *                  at most timeoutMS / {@see #TICKS_PER_TIMEOUT} later.
+     */
+    LivenessTracker(ProtocolScheduler scheduler, int timeoutMS, Callback callback) {
+        this.scheduler = scheduler;
+        this.callback = callback;
+        this.timeoutMS = timeoutMS;
+        this.tickMS = Math.max(1, timeoutMS / TICKS_PER_TIMEOUT);
+    }
+
+    int getTimeout() {
+        return timeoutMS;
+    }
+
+    /**
+     * The device has been heard of. Starts tracking the device if necessary.
+     */
+    void heartbeat(BootstrapDevice device) {
+        long deadline = scheduler.uptimeMillis() + timeoutMS;
+        Entry entry = entries.get(device);
+        if (entry != null) {
+            entry.deadline = deadline;
+            return;
+        }
+        entry = new Entry();
+        entry.device = device;
+        entry.deadline = deadline;
+        entries.put(device, entry);
+        if (task == null)
+            currentTick = scheduler.uptimeMillis() / tickMS;
+        insert(entry);
+        if (task == null)
+            scheduleTick();
+    }
+
+    /**
+     * Stop tracking the device, for example because it has been removed from the device list.
+     */
+    void remove(BootstrapDevice device) {
+        Entry entry = entries.remove(device);
+        if (entry != null)
+            entry.device = null;
+    }
+
+    void clear() {
+        entries.clear();
+        for (int i = 0; i < WHEEL_SIZE; ++i)
+            wheel[i] = null;
+        scheduled = 0;
+        if (task != null)
+            task.cancel();
+        task = null;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void insert(Entry entry) {
+        // The first tick at or after the deadline, but never a processed one
+        long tick = Math.max((entry.deadline + tickMS - 1) / tickMS, currentTick + 1);
+        int slot = (int) (tick & (WHEEL_SIZE - 1));
+        entry.next = wheel[slot];
+        wheel[slot] = entry;
+        ++scheduled;
+    }
+
+    private void scheduleTick() {
+        if (scheduled == 0)
+            return;
+        long delay = (currentTick + 1) * tickMS - scheduler.uptimeMillis();
+        task = scheduler.schedule(tick, Math.max(0, delay));
+    }
+
+    private void advance() {
+        long now = scheduler.uptimeMillis();
+        long target = now / tickMS;
+        // Visiting every slot once is enough, even if the thread was blocked for longer
+        long from = Math.max(currentTick + 1, target - WHEEL_SIZE + 1);
+        currentTick = target;
+
+        List<BootstrapDevice> expired = null;
+        for (long t = from; t <= target; ++t) {
+            int slot = (int) (t & (WHEEL_SIZE - 1));
+            Entry entry = wheel[slot];
+            wheel[slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                --scheduled;
+                if (entry.device == null) {
+                    // Removed
+                } else if (entry.deadline > now) {
+                    insert(entry);
+                } else {
+                    entries.remove(entry.device);
+                    if (expired == null)
+                        expired = new ArrayList<>();
+                    expired.add(entry.device);
+                }
+                entry = next;
+            }
+        }
+
+        scheduleTick();
+        if (expired != null)
+            callback.expired(expired);
+    }
+}
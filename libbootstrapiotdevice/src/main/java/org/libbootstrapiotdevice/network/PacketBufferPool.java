@@ -0,0 +1,65 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles the byte arrays of send packets. Packets are handed to
+ * {@see IUDPNetwork#send(int, java.net.InetAddress, byte[])} as exact sized arrays, so
+ * arrays are pooled per size. The protocol only knows a few packet sizes (hello, bind,
+ * bootstrap), therefore the size classes are kept in a short list.
+ * <p/>
+ * Use the singleton instance(). All methods are thread safe.
+ */
+public class PacketBufferPool {
+    private static final int MAX_PER_SIZE = 32;
+    private static final int MAX_SIZE_CLASSES = 16;
+    private static PacketBufferPool instance = new PacketBufferPool();
+
+    private final List<ArrayDeque<byte[]>> pool = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+
+    public static PacketBufferPool instance() {
+        return instance;
+    }
+
+    private ArrayDeque<byte[]> arraysFor(int size, boolean create) {
+        for (int i = 0; i < sizes.size(); ++i)
+            if (sizes.get(i) == size)
+                return pool.get(i);
+        if (!create || sizes.size() >= MAX_SIZE_CLASSES)
+            return null;
+        ArrayDeque<byte[]> arrays = new ArrayDeque<>();
+        sizes.add(size);
+        pool.add(arrays);
+        return arrays;
+    }
+
+    /**
+     * @param size The array size.
+     * @return Return a recycled or a new array of exactly the given size. The content is undefined.
+     */
+    @NonNull
+    public synchronized byte[] acquire(int size) {
+        ArrayDeque<byte[]> arrays = arraysFor(size, false);
+        if (arrays == null || arrays.isEmpty())
+            return new byte[size];
+        return arrays.pop();
+    }
+
+    /**
+     * Give an array back. The caller must not use it anymore.
+     *
+     * @param data The array.
+     */
+    public synchronized void release(byte[] data) {
+        if (data.length == 0)
+            return;
+        ArrayDeque<byte[]> arrays = arraysFor(data.length, true);
+        if (arrays != null && arrays.size() < MAX_PER_SIZE)
+            arrays.push(data);
+    }
+}
@@ -0,0 +1,206 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.Nullable;
+
+import org.libbootstrapiotdevice.network.spritzJ.SpritzEngine;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzFactory;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzKeyCache;
+
+/**
+ * Decrypts and parses encrypted device responses without allocating. The payload is
+ * decrypted into a reusable scratch buffer and only the offsets of the fields are
+ * recorded. Nothing is copied or decoded here, see
+ * {@see org.libbootstrapiotdevice.BootstrapDevice#updateState(PacketDecoder, org.libbootstrapiotdevice.DeviceMode, DeviceState, byte[], int)}
+ * which only copies fields that changed and decodes the wifi list lazily.
+ * <p/>
+ * The decoder is reused for every packet and therefore not thread safe, use one instance
+ * per receiving thread.
+ * <p/>
+ * Payload layout: nonce, uid, external_confirmation_state, wifi_list_size_in_bytes,
+ * wifi_list_entries, wifi list ([strength, encryption mode, ssid, \0] per entry), name_or_log.
+ */
+public class PacketDecoder {
+    private final SpritzEngine crypto = SpritzFactory.newEngine();
+    // The bound and the unbound key with the app nonce
+    private final SpritzKeyCache keyCache = new SpritzKeyCache(2);
+    private byte[] data = new byte[1024];
+    private int length;
+
+    // Field cursors, valid after a successful parse()
+    private int uidOffset;
+    private int nonceOffset;
+    private int externalConfirmationState;
+    private int wifiListOffset;
+    private int wifiListLength;
+    private int wifiListEntries;
+    private int currentNetworkEntry;
+    private int nameOffset;
+    private int nameLength;
+
+    /**
+     * Decrypt the payload of the given packet into the scratch buffer.
+     *
+     * @return Return the checksum of the decrypted payload.
+     */
+    public int decrypt(byte[] key, int keyLen, byte[] nonce, byte[] message, int offset, int length) {
+        if (data.length < length)
+            data = new byte[length];
+        this.length = length;
+        keyCache.cipherInit(crypto, key, keyLen, nonce, nonce.length);
+        crypto.cipherDecrypt(message, offset, length, data, 0);
+        return Checksums.GenerateChecksumCRC16(data, 0, length);
+    }
+
+    /**
+     * Decrypt only the beginning of the payload and compare it with the expected bytes.
+     * Used to find out which key a device used, without decrypting the whole payload.
+     *
+     * @return Return true if the decrypted bytes equal the expected bytes.
+     */
+    public boolean trialDecrypt(byte[] key, int keyLen, byte[] nonce, byte[] message, int offset,
+                                int length, byte[] expected) {
+        if (length < expected.length)
+            return false;
+        keyCache.cipherInit(crypto, key, keyLen, nonce, nonce.length);
+        crypto.cipherDecrypt(message, offset, expected.length, data, 0);
+        return regionEquals(expected, data, 0, expected.length);
+    }
+
+    /**
+     * Parse the decrypted payload.
+     *
+     * @param currentSsid The ssid of the network the app is part of, encoded as bytes. The
+     *                    wifi list entry with this ssid is remembered.
+     * @return Return null if successful, otherwise the parse error.
+     */
+    @Nullable
+    public String parse(@Nullable byte[] currentSsid) {
+        final byte[] data = this.data;
+        final int end = length;
+        int pos = 0;
+
+        ////////// Device nonce, uid //////////
+        if (end - pos < BootstrapCore.BST_NONCE_SIZE)
+            return "Welcome message to short! Nonce is missing.";
+        nonceOffset = pos;
+        pos += BootstrapCore.BST_NONCE_SIZE;
+
+        if (end - pos < BootstrapCore.BST_UID_SIZE)
+            return "Welcome message to short! uid is missing.";
+        uidOffset = pos;
+        pos += BootstrapCore.BST_UID_SIZE;
+
+        ////////// wifi_list_size_in_bytes, wifi_list_entries //////////
+        if (end - pos < 3)
+            return "Welcome message to short! wifi list info missing.";
+
+        externalConfirmationState = data[pos++] & 255;
+        int wifi_list_size_in_bytes = data[pos++] & 255;
+        int entries = data[pos++] & 255;
+
+        if (end - pos < wifi_list_size_in_bytes)
+            return "Welcome message to short! wifi_list_size_in_bytes wrong.";
+
+        ////////// wifi list //////////
+        wifiListOffset = pos;
+        wifiListEntries = 0;
+        currentNetworkEntry = -1;
+
+        while (entries-- > 0 && end - pos >= 3) {
+            int strength = data[pos] & 255;
+            if (strength > 100)
+                break;
+            pos += 2; // strength, encryption mode
+
+            // Look for next \0 character
+            int terminator = indexOfZero(data, pos, end);
+            if (terminator == -1)
+                break;
+            int ssidLength = terminator - pos;
+
+            if (currentSsid != null && regionEquals(currentSsid, data, pos, ssidLength))
+                currentNetworkEntry = wifiListEntries;
+
+            ++wifiListEntries;
+            wifi_list_size_in_bytes -= ssidLength + 3;
+            pos = terminator + 1;
+        }
+
+        if (wifi_list_size_in_bytes != 0)
+            return "Could not parse wifi list";
+
+        wifiListLength = pos - wifiListOffset;
+
+        ////////// name_or_log //////////
+        nameOffset = pos;
+        int terminator = indexOfZero(data, pos, end);
+        // Without a terminator the last byte is dropped, as the firmware always terminates.
+        nameLength = terminator != -1 ? terminator - pos : Math.max(0, end - pos - 1);
+        return null;
+    }
+
+    private static int indexOfZero(byte[] data, int from, int end) {
+        for (int i = from; i < end; ++i)
+            if (data[i] == 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return Return true if the region of data equals the entire array a.
+     */
+    public static boolean regionEquals(@Nullable byte[] a, byte[] data, int offset, int length) {
+        if (a == null || a.length != length)
+            return false;
+        for (int i = 0; i < length; ++i)
+            if (a[i] != data[offset + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return Return the scratch buffer with the decrypted payload.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getNonceOffset() {
+        return nonceOffset;
+    }
+
+    public int getUidOffset() {
+        return uidOffset;
+    }
+
+    public int getExternalConfirmationState() {
+        return externalConfirmationState;
+    }
+
+    public int getWifiListOffset() {
+        return wifiListOffset;
+    }
+
+    public int getWifiListLength() {
+        return wifiListLength;
+    }
+
+    public int getWifiListEntries() {
+        return wifiListEntries;
+    }
+
+    /**
+     * @return Return the index of the wifi list entry with the current ssid or -1.
+     */
+    public int getCurrentNetworkEntry() {
+        return currentNetworkEntry;
+    }
+
+    public int getNameOffset() {
+        return nameOffset;
+    }
+
+    public int getNameLength() {
+        return nameLength;
+    }
+}
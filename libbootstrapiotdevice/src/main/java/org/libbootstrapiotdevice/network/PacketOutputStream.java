@@ -0,0 +1,30 @@
+package org.libbootstrapiotdevice.network;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A ByteArrayOutputStream that gives access to its internal buffer, so that a packet
+ * can be copied into a pooled array (see {@see PacketBufferPool}) instead of allocating
+ * a new one with toByteArray().
+ */
+public class PacketOutputStream extends ByteArrayOutputStream {
+    public PacketOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * @return Return the internal buffer. Only the first size() bytes are valid.
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return Return a pooled array of exactly size() bytes with the content of this stream.
+     */
+    public byte[] toPooledByteArray() {
+        byte[] data = PacketBufferPool.instance().acquire(count);
+        System.arraycopy(buf, 0, data, 0, count);
+        return data;
+    }
+}
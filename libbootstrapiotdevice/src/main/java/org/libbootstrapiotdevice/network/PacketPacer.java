@@ -0,0 +1,39 @@
+package org.libbootstrapiotdevice.network;
+
+/**
+ * Limits the send rate to a configurable amount of packets per second, so that slow
+ * receivers (ESP8266 class devices) are not overrun. Allows short bursts of up to
+ * one tenth of a second worth of packets.
+ * <p/>
+ * Only used by the send thread, not thread safe.
+ */
+class PacketPacer {
+    private long intervalNanos = 0;
+    private long burstNanos = 0;
+    private long nextSend = 0;
+
+    /**
+     * @param packetsPerSecond The maximum send rate. 0 for unlimited.
+     */
+    void setPacketsPerSecond(int packetsPerSecond) {
+        intervalNanos = packetsPerSecond > 0 ? 1000000000L / packetsPerSecond : 0;
+        burstNanos = packetsPerSecond > 0 ? 100000000L : 0;
+    }
+
+    /**
+     * Reserve a send slot for one packet.
+     *
+     * @param nowNanos The current time, System.nanoTime().
+     * @return Return how many nanoseconds to wait before sending the packet.
+     */
+    long reserve(long nowNanos) {
+        if (intervalNanos == 0)
+            return 0;
+        // Unused time in the past only counts up to the burst size
+        if (nextSend < nowNanos - burstNanos)
+            nextSend = nowNanos - burstNanos;
+        long wait = Math.max(0, nextSend - nowNanos);
+        nextSend += intervalNanos;
+        return wait;
+    }
+}
@@ -0,0 +1,40 @@
+package org.libbootstrapiotdevice.network;
+
+/**
+ * Executes the protocol steps of {@see org.libbootstrapiotdevice.network.BootstrapCore}.
+ * Device responses are handed over from the receive threads with {@see #post(Runnable)} and
+ * retries are scheduled per device with {@see #schedule(Runnable, long)}. All tasks have to
+ * run sequentially on one thread, in the order they are due. Tasks with the same due time run
+ * in the order they were scheduled.
+ * <p/>
+ * Implementations: {@see HandlerScheduler} for the android main thread and
+ * {@see ExecutorScheduler} for a plain java thread.
+ */
+public interface ProtocolScheduler {
+    /**
+     * A scheduled task that can be cancelled.
+     */
+    interface Task {
+        /**
+         * Do not run the task if it did not start already. Does nothing otherwise.
+         */
+        void cancel();
+    }
+
+    /**
+     * Run the given task as soon as possible. May be called from any thread.
+     */
+    Task post(Runnable runnable);
+
+    /**
+     * Run the given task after the given delay. May be called from any thread.
+     *
+     * @param delayMS Delay in milliseconds.
+     */
+    Task schedule(Runnable runnable, long delayMS);
+
+    /**
+     * @return Return the monotonic time in milliseconds that is used for the delays.
+     */
+    long uptimeMillis();
+}
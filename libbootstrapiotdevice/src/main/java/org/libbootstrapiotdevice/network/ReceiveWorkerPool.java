@@ -0,0 +1,134 @@
+package org.libbootstrapiotdevice.network;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A receive stage between the network and {@see BootstrapCore#parsePacket(byte[], int, InetSocketAddress)}.
+ * The network thread only copies the datagram and hands it to a worker, decrypting and
+ * verifying happens on the workers. A slow decode therefore does not stall the socket.
+ * <p/>
+ * Datagrams are distributed to the workers by the peer address. All datagrams of a device
+ * are processed by the same worker in arrival order, so the results of a device reach the
+ * handler in the same order. Each worker queue is bounded, if a worker is overloaded
+ * datagrams are dropped (and counted) like a full socket buffer would do.
+ */
+public class ReceiveWorkerPool implements IUDPNetworkReceive {
+    private static final int BUFFER_SIZE = 1024;
+
+    private final IUDPNetworkReceive target;
+    private final ThreadPoolExecutor[] workers;
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param target        The receiver that parses the datagrams, called on the worker threads.
+     *                      Has to be thread safe for datagrams of different peers.
+     * @param workerCount   Amount of worker threads.
+     * @param queueCapacity Maximum amount of waiting datagrams per worker.
+     */
+    public ReceiveWorkerPool(IUDPNetworkReceive target, int workerCount, int queueCapacity) {
+        this.target = target;
+        workers = new ThreadPoolExecutor[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            final String name = "ReceiveWorker" + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, name);
+                }
+            });
+        }
+    }
+
+    /**
+     * Called by the network thread. The message is copied, the network may reuse its buffer.
+     */
+    @Override
+    public void parsePacket(byte[] message, int length, InetSocketAddress peer) {
+        received.incrementAndGet();
+        if (length > BUFFER_SIZE) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        int h = peer.getAddress().hashCode() * 0x9E3779B9;
+        ThreadPoolExecutor worker = workers[((h ^ (h >>> 16)) & 0x7fffffff) % workers.length];
+
+        final PacketBufferPool pool = PacketBufferPool.instance();
+        byte[] copy = pool.acquire(BUFFER_SIZE);
+        System.arraycopy(message, 0, copy, 0, length);
+        try {
+            worker.execute(new Datagram(copy, length, peer));
+        } catch (RejectedExecutionException e) {
+            pool.release(copy);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop the workers. Waiting datagrams are discarded.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor worker : workers)
+            worker.shutdownNow();
+    }
+
+    /**
+     * Wait until all queued datagrams are processed. Used by tests.
+     *
+     * @return Return true if all workers are idle within the given time.
+     */
+    public boolean awaitIdle(long timeoutMS) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMS;
+        for (ThreadPoolExecutor worker : workers) {
+            while (worker.getCompletedTaskCount() < worker.getTaskCount()) {
+                if (System.currentTimeMillis() > end)
+                    return false;
+                Thread.sleep(1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Return the amount of datagrams that were handed to this stage.
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * @return Return the amount of datagrams that were dropped because a worker was overloaded.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private class Datagram implements Runnable {
+        private final byte[] message;
+        private final int length;
+        private final InetSocketAddress peer;
+
+        Datagram(byte[] message, int length, InetSocketAddress peer) {
+            this.message = message;
+            this.length = length;
+            this.peer = peer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                target.parsePacket(message, length, peer);
+            } finally {
+                PacketBufferPool.instance().release(message);
+            }
+        }
+    }
+}
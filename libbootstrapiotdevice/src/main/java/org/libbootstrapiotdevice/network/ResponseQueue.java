@@ -0,0 +1,130 @@
+package org.libbootstrapiotdevice.network;
+
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+/**
+ * Hands over accepted device responses from the receive threads to the protocol thread.
+ * The responses are kept in a ring of parallel arrays that is reused, and one drain task is
+ * posted for all responses that arrive until it runs. Receiving the response of a known
+ * device therefore does not allocate. The ring only grows if a burst does not fit.
+ * <p/>
+ * Responses are handled in the order they were added. Thread safe.
+ */
+class ResponseQueue {
+    private static final int INITIAL_CAPACITY = 64;
+
+    interface Handler {
+        /**
+         * An unencrypted hello, see {@see BootstrapCore#deviceOnline}.
+         */
+        void deviceOnline(int index, BootstrapDevice device, DeviceState state);
+
+        /**
+         * A decrypted response, see {@see BootstrapCore#bindOrUpdate}.
+         */
+        void deviceUpdated(int index, BootstrapDevice device);
+    }
+
+    private final ProtocolScheduler scheduler;
+    private final Handler handler;
+    // Guarded by this. A null state marks a decrypted response.
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private BootstrapDevice[] devices = new BootstrapDevice[INITIAL_CAPACITY];
+    private DeviceState[] states = new DeviceState[INITIAL_CAPACITY];
+    private int head = 0;
+    private int count = 0;
+    private boolean posted = false;
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                drain();
+            } finally {
+                synchronized (ResponseQueue.this) {
+                    // A handler failed or responses arrived after the queue was found empty
+                    if (count > 0)
+                        scheduler.post(drain);
+                    else
+                        posted = false;
+                }
+            }
+        }
+    };
+
+    ResponseQueue(ProtocolScheduler scheduler, Handler handler) {
+        this.scheduler = scheduler;
+        this.handler = handler;
+    }
+
+    /**
+     * @param index The device list index at the time the response was received or -1.
+     */
+    void addOnline(int index, BootstrapDevice device, DeviceState state) {
+        add(index, device, state);
+    }
+
+    /**
+     * @param index The device list index at the time the response was received or -1.
+     */
+    void addUpdated(int index, BootstrapDevice device) {
+        add(index, device, null);
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    private synchronized void add(int index, BootstrapDevice device, DeviceState state) {
+        if (count == indices.length)
+            grow();
+        int slot = (head + count) & (indices.length - 1);
+        indices[slot] = index;
+        devices[slot] = device;
+        states[slot] = state;
+        ++count;
+        if (!posted) {
+            posted = true;
+            scheduler.post(drain);
+        }
+    }
+
+    private void grow() {
+        int capacity = indices.length;
+        int[] newIndices = new int[capacity * 2];
+        BootstrapDevice[] newDevices = new BootstrapDevice[capacity * 2];
+        DeviceState[] newStates = new DeviceState[capacity * 2];
+        for (int i = 0; i < count; ++i) {
+            int slot = (head + i) & (capacity - 1);
+            newIndices[i] = indices[slot];
+            newDevices[i] = devices[slot];
+            newStates[i] = states[slot];
+        }
+        indices = newIndices;
+        devices = newDevices;
+        states = newStates;
+        head = 0;
+    }
+
+    private void drain() {
+        while (true) {
+            int index;
+            BootstrapDevice device;
+            DeviceState state;
+            synchronized (this) {
+                if (count == 0)
+                    return;
+                index = indices[head];
+                device = devices[head];
+                state = states[head];
+                devices[head] = null;
+                head = (head + 1) & (indices.length - 1);
+                --count;
+            }
+            // Outside of the lock, the receive threads keep adding responses
+            if (state != null)
+                handler.deviceOnline(index, device, state);
+            else
+                handler.deviceUpdated(index, device);
+        }
+    }
+}
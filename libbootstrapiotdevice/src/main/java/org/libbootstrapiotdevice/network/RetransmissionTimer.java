@@ -0,0 +1,101 @@
+package org.libbootstrapiotdevice.network;
+
+import java.util.Random;
+
+/**
+ * Estimates the retransmission timeout like TCP does (RFC 6298): Every round trip time sample
+ * updates the smoothed round trip time (SRTT) and its variation (RTTVAR), the timeout is
+ * SRTT + 4 * RTTVAR. Every timeout without an answer doubles the timeout (exponential
+ * backoff) until the next sample arrives. The delays are randomized by a jitter, so that
+ * devices do not answer at the same time.
+ * <p/>
+ * Used on the protocol thread only, not thread safe.
+ */
+class RetransmissionTimer {
+    static final int MIN_TIMEOUT_MS = 250;
+    static final int MAX_TIMEOUT_MS = 8000;
+    private static final int GRANULARITY_MS = 10;
+
+    private int srtt = -1;
+    private int rttvar = 0;
+    private int timeout;
+    private int backoff = 0;
+
+    /**
+     * @param initialTimeoutMS The timeout until the first sample arrives.
+     */
+    RetransmissionTimer(int initialTimeoutMS) {
+        timeout = clamp(initialTimeoutMS);
+    }
+
+    /**
+     * Start with the estimation of another timer, if it has samples already.
+     *
+     * @param initialTimeoutMS The timeout if the other timer has no samples.
+     * @param estimate         Another timer, for example of the same network.
+     */
+    RetransmissionTimer(int initialTimeoutMS, RetransmissionTimer estimate) {
+        this(initialTimeoutMS);
+        if (estimate.srtt >= 0) {
+            srtt = estimate.srtt;
+            rttvar = estimate.rttvar;
+            timeout = estimate.timeout;
+        }
+    }
+
+    private static int clamp(long timeoutMS) {
+        return (int) Math.max(MIN_TIMEOUT_MS, Math.min(MAX_TIMEOUT_MS, timeoutMS));
+    }
+
+    /**
+     * Add a round trip time sample. Only use samples of packets that were not retransmitted
+     * (Karn's algorithm), the answer could belong to any of the packets otherwise.
+     * Ends the backoff.
+     */
+    void sample(long rttMS) {
+        int r = (int) Math.min(rttMS, MAX_TIMEOUT_MS);
+        if (srtt < 0) {
+            srtt = r;
+            rttvar = r / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - r)) / 4;
+            srtt = (7 * srtt + r) / 8;
+        }
+        timeout = clamp(srtt + Math.max(GRANULARITY_MS, 4 * rttvar));
+        backoff = 0;
+    }
+
+    /**
+     * A packet was not answered in time, double the timeout.
+     */
+    void backoff() {
+        if (getTimeout() < MAX_TIMEOUT_MS)
+            ++backoff;
+    }
+
+    /**
+     * @return Return the current timeout in milliseconds, including the backoff.
+     */
+    int getTimeout() {
+        return clamp((long) timeout << backoff);
+    }
+
+    /**
+     * @param jitter A fraction of the timeout, for example 0.25 for +-25%. 0 for no jitter.
+     * @return Return the delay until the next retransmission.
+     */
+    int nextDelay(Random random, float jitter) {
+        int timeout = getTimeout();
+        int range = (int) (timeout * jitter);
+        if (range <= 0)
+            return timeout;
+        return timeout - range + random.nextInt(2 * range + 1);
+    }
+
+    /**
+     * @return Return the smoothed round trip time in milliseconds or -1 if there was no sample yet.
+     */
+    int getSmoothedRtt() {
+        return srtt;
+    }
+}
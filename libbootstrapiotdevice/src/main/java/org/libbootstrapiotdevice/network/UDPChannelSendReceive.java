@@ -0,0 +1,336 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A UDP network implementation based on a non-blocking DatagramChannel. In contrast to
+ * {@see UDPMulticastSendReceive} a single event loop thread does both, sending and
+ * receiving, and packets are copied into pooled direct buffers instead of a shared
+ * DatagramPacket. send() only enqueues the packet and wakes up the event loop.
+ * <p/>
+ * This class has no Android dependencies. On Android the caller is responsible for the
+ * multicast lock and for binding {@see #getSocket()} to a network.
+ */
+public class UDPChannelSendReceive implements IUDPNetwork {
+    static final int MAX_PACKET_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<SendEntry> sendQueue = new ConcurrentLinkedQueue<>();
+    private final UnicastFallbackPolicy unicastPolicy = new UnicastFallbackPolicy();
+    private final List<InetAddress> localIPAddresses = new ArrayList<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    private final byte[] receiveData = new byte[MAX_PACKET_SIZE];
+
+    private volatile DatagramChannel channel;
+    private volatile Selector selector;
+    private EventLoop thread;
+    private IUDPNetworkReceive receiver;
+    private NetworkInterface networkInterface;
+    private InetAddress broadcastAddress;
+    // A packet the channel could not send yet (socket send buffer full)
+    private SendEntry pending;
+    private List<SocketAddress> pendingDestinations = new ArrayList<>();
+
+    /**
+     * If send() is called with a null address, this broadcastAddress will be used instead.
+     *
+     * @param broadcastAddress The broadcast/multicast address.
+     */
+    public void setBroadcastAddress(InetAddress broadcastAddress) {
+        this.broadcastAddress = broadcastAddress;
+    }
+
+    /**
+     * See {@see UDPMulticastSendReceive#setUnicast(boolean, int)}.
+     */
+    public void setUnicast(boolean enabled, int fallbackAfter) {
+        unicastPolicy.setUnicast(enabled, fallbackAfter);
+    }
+
+    public UnicastFallbackPolicy getUnicastPolicy() {
+        return unicastPolicy;
+    }
+
+    /**
+     * @return Return the socket of the channel, to bind it to a network for example.
+     * Null if not started.
+     */
+    @Nullable
+    public DatagramSocket getSocket() {
+        DatagramChannel channel = this.channel;
+        return channel != null ? channel.socket() : null;
+    }
+
+    /**
+     * @return Return the local port of the channel or -1 if not started.
+     */
+    public int getLocalPort() {
+        DatagramSocket socket = getSocket();
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    /**
+     * Open the channel and start the event loop thread.
+     *
+     * @param networkInterface Broadcasts are send to the broadcast addresses of this
+     *                         interface and packets from its addresses are ignored.
+     *                         If null, broadcasts go to the broadcast address.
+     * @param receivePort      The local port. 0 for any port.
+     * @param receiver         Called on the event loop thread for every received packet.
+     * @return Return true if the channel could be opened.
+     */
+    public synchronized boolean start(@Nullable NetworkInterface networkInterface, int receivePort,
+                                      IUDPNetworkReceive receiver) {
+        tearDown();
+        this.networkInterface = networkInterface;
+        this.receiver = receiver;
+
+        localIPAddresses.clear();
+        if (networkInterface != null) {
+            for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+                InetAddress address = interfaceAddress.getAddress();
+                if (address != null)
+                    localIPAddresses.add(address);
+            }
+        }
+
+        try {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.socket().setBroadcast(true);
+            channel.socket().bind(new InetSocketAddress(receivePort));
+            channel.configureBlocking(false);
+            Selector selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            this.channel = channel;
+            this.selector = selector;
+        } catch (IOException e) {
+            e.printStackTrace();
+            tearDown();
+            return false;
+        }
+
+        thread = new EventLoop();
+        thread.start();
+        return true;
+    }
+
+    public synchronized void tearDown() {
+        Selector selector = this.selector;
+        DatagramChannel channel = this.channel;
+        this.selector = null;
+        this.channel = null;
+
+        if (selector != null) {
+            selector.wakeup();
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (thread != null && thread.isAlive()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            thread.interrupt();
+        }
+        thread = null;
+
+        SendEntry entry;
+        while ((entry = sendQueue.poll()) != null)
+            releaseBuffer(entry.data);
+        if (pending != null) {
+            releaseBuffer(pending.data);
+            pending = null;
+        }
+    }
+
+    @Override
+    public boolean send(int sendPort, @Nullable InetAddress address, byte[] data) {
+        Selector selector = this.selector;
+        if (selector == null || data.length > MAX_PACKET_SIZE) {
+            PacketBufferPool.instance().release(data);
+            return false;
+        }
+        if (address == null)
+            address = broadcastAddress;
+        ByteBuffer buffer = acquireBuffer();
+        buffer.put(data).flip();
+        PacketBufferPool.instance().release(data);
+        sendQueue.add(new SendEntry(buffer, sendPort, address));
+        selector.wakeup();
+        return true;
+    }
+
+    @Override
+    public boolean isValid() {
+        return channel != null;
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        buffer.clear();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // The pool size is only approximated, size() is not constant time
+        if (bufferPool.size() < MAX_POOLED_BUFFERS)
+            bufferPool.offer(buffer);
+    }
+
+    private void receive(DatagramChannel channel) throws ClosedChannelException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress address;
+            try {
+                address = channel.receive(receiveBuffer);
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                // For example an ICMP error of an earlier send. Lost datagram, try again with the next select
+                return;
+            }
+            if (address == null)
+                return;
+            InetSocketAddress remoteAddress = (InetSocketAddress) address;
+            // Don't receive packets from ourself
+            if (localIPAddresses.contains(remoteAddress.getAddress()))
+                continue;
+            unicastPolicy.answered(remoteAddress.getAddress());
+            receiveBuffer.flip();
+            int length = receiveBuffer.remaining();
+            receiveBuffer.get(receiveData, 0, length);
+            receiver.parsePacket(receiveData, length, remoteAddress);
+        }
+    }
+
+    /**
+     * Resolve the destinations of a packet: The device address or all broadcast addresses.
+     */
+    private void destinations(SendEntry entry, List<SocketAddress> out) {
+        out.clear();
+        if (unicastPolicy.useUnicast(entry.address)) {
+            out.add(new InetSocketAddress(entry.address, entry.sendPort));
+            unicastPolicy.countUnicast();
+            return;
+        }
+        if (networkInterface != null) {
+            for (InterfaceAddress interfaceAddress : networkInterface.getInterfaceAddresses()) {
+                InetAddress address = interfaceAddress.getBroadcast();
+                if (address != null)
+                    out.add(new InetSocketAddress(address, entry.sendPort));
+            }
+        }
+        if (out.isEmpty() && entry.address != null)
+            out.add(new InetSocketAddress(entry.address, entry.sendPort));
+        unicastPolicy.countBroadcast(out.size());
+    }
+
+    /**
+     * Send queued packets until the queue is empty or the socket buffer is full.
+     *
+     * @return Return true if everything has been send.
+     */
+    private boolean flush(DatagramChannel channel) throws ClosedChannelException {
+        while (true) {
+            if (pending == null) {
+                pending = sendQueue.poll();
+                if (pending == null)
+                    return true;
+                destinations(pending, pendingDestinations);
+            }
+            while (!pendingDestinations.isEmpty()) {
+                ByteBuffer data = pending.data;
+                int position = data.position();
+                try {
+                    if (channel.send(data, pendingDestinations.get(pendingDestinations.size() - 1)) == 0)
+                        return false;
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Unreachable or denied destination: Only this destination is dropped
+                }
+                data.position(position);
+                pendingDestinations.remove(pendingDestinations.size() - 1);
+            }
+            releaseBuffer(pending.data);
+            pending = null;
+        }
+    }
+
+    private static class SendEntry {
+        final ByteBuffer data;
+        final int sendPort;
+        final InetAddress address;
+
+        SendEntry(ByteBuffer data, int sendPort, InetAddress address) {
+            this.data = data;
+            this.sendPort = sendPort;
+            this.address = address;
+        }
+    }
+
+    private class EventLoop extends Thread {
+        private final DatagramChannel channel = UDPChannelSendReceive.this.channel;
+        private final Selector selector = UDPChannelSendReceive.this.selector;
+
+        EventLoop() {
+            super("UDPChannelSendReceive");
+        }
+
+        @Override
+        public void run() {
+            try {
+                SelectionKey key = channel.keyFor(selector);
+                while (selector.isOpen()) {
+                    try {
+                        selector.select();
+                    } catch (IOException e) {
+                        if (selector.isOpen())
+                            e.printStackTrace();
+                        continue;
+                    }
+                    if (key.isValid() && key.isReadable())
+                        receive(channel);
+                    selector.selectedKeys().clear();
+
+                    // Only wait for OP_WRITE if the socket buffer was full
+                    boolean done = flush(channel);
+                    key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            } catch (ClosedSelectorException | CancelledKeyException | ClosedChannelException ignored) {
+                // tearDown() closed the selector or the channel
+            }
+        }
+    }
+}
@@ -46,6 +46,9 @@ public class UDPMulticastSendReceive implements IUDPNetwork {
     private android.net.Network network;
     private List<InetAddress> localIPAddresses = new ArrayList<>();
     private InetAddress broadcastAddress;
+    private final UnicastFallbackPolicy unicastPolicy = new UnicastFallbackPolicy();
+    private volatile int coalesceWindowMS = 100;
+    private volatile int packetsPerSecond = 0;
 
     /**
      * If send() is called with a null address, this broadcastAddress will be used instead.
@@ -56,6 +59,42 @@ public class UDPMulticastSendReceive implements IUDPNetwork {
         this.broadcastAddress = broadcastAddress;
     }
 
+    /**
+     * Send packets for known device addresses directly to the device instead of
+     * broadcasting them. See {@see UnicastFallbackPolicy}.
+     *
+     * @param enabled       Enable unicast. Disabled by default.
+     * @param fallbackAfter Broadcast again after this amount of unanswered packets to an address.
+     */
+    public void setUnicast(boolean enabled, int fallbackAfter) {
+        unicastPolicy.setUnicast(enabled, fallbackAfter);
+    }
+
+    /**
+     * Equal broadcast packets that are send within the given window are only send once.
+     *
+     * @param windowMS The window in milliseconds. 0 disables coalescing. Default: 100ms.
+     */
+    public void setCoalescingWindow(int windowMS) {
+        this.coalesceWindowMS = windowMS;
+    }
+
+    /**
+     * Limit the send rate, to not overrun slow receivers. Every datagram of a broadcast counts.
+     *
+     * @param packetsPerSecond The maximum rate or 0 for unlimited (default).
+     */
+    public void setPacketsPerSecond(int packetsPerSecond) {
+        this.packetsPerSecond = packetsPerSecond;
+    }
+
+    /**
+     * @return Return the unicast policy with the unicast/broadcast counters.
+     */
+    public UnicastFallbackPolicy getUnicastPolicy() {
+        return unicastPolicy;
+    }
+
     @Override
     public boolean send(int sendPort, @Nullable InetAddress address, byte[] data) {
         if (address == null)
@@ -187,7 +226,6 @@ public class UDPMulticastSendReceive implements IUDPNetwork {
         try {
             closeSocket = false;
             while (!closeSocket) {
-                Log.w(TAG, "receive ready");
                 multicastLock.acquire();
                 socket.receive(packet);
                 InetSocketAddress remoteAddress = (InetSocketAddress) packet.getSocketAddress();
@@ -199,7 +237,10 @@ public class UDPMulticastSendReceive implements IUDPNetwork {
                     }
                 }
                 if (remoteAddress != null) {
-                    Log.w(TAG, "socket receive " + String.valueOf(packet.getLength()) + " " + String.valueOf(remoteAddress.getPort()) + " " + remoteAddress.getAddress().toString());
+                    unicastPolicy.answered(remoteAddress.getAddress());
+                    // Per datagram: Only built if enabled with "adb shell setprop log.tag.UDPRECEIVE DEBUG"
+                    if (Log.isLoggable(TAG, Log.DEBUG))
+                        Log.d(TAG, "socket receive " + String.valueOf(packet.getLength()) + " " + String.valueOf(remoteAddress.getPort()) + " " + remoteAddress.getAddress().toString());
                     receiver.parsePacket(buffer, packet.getLength(), remoteAddress);
                     // Reset the length of the packet before reusing it.
                     packet.setLength(buffer.length);
@@ -226,42 +267,87 @@ public class UDPMulticastSendReceive implements IUDPNetwork {
         }
     }
 
+    /**
+     * Drains the send queue in batches. Equal broadcasts are coalesced and the send rate
+     * is limited by a {@see PacketPacer}. Packet arrays are given back to the
+     * {@see PacketBufferPool} after sending.
+     */
     private class SendThread extends Thread {
+        private static final int BATCH_SIZE = 32;
+        private final List<SendEntry> batch = new ArrayList<>(BATCH_SIZE);
+        private final BroadcastCoalescer coalescer = new BroadcastCoalescer(coalesceWindowMS);
+        private final PacketPacer pacer = new PacketPacer();
+
         SendThread() {
             super("sendThread");
         }
+
         @Override
         public void run() {
+            PacketBufferPool pool = PacketBufferPool.instance();
             while (!shutdownThread) {
                 try {
-                    SendEntry entry = sendQueue.take();
-
-                    sendPacket.setPort(entry.sendPort);
-                    sendPacket.setData(entry.data, 0, entry.data.length);
-
-                    // We do not use the entry.address for now. Sending to all interface broadcast addresses
-                    // is more reliable, see below.
-//                    sendPacket.setAddress(entry.address);
-//                    Log.w(TAG, "send data " + String.valueOf(sendPacket.getLength()) + " " + String.valueOf(sendPacket.getPort()) + " " + sendPacket.getAddress().toString());
-//                    socket.send(sendPacket);
-
-                    List<InterfaceAddress> interfaceAddresses = networkInterface.getInterfaceAddresses();
-                    for (InterfaceAddress interfaceAddress : interfaceAddresses) {
-                        InetAddress address = interfaceAddress.getBroadcast();
-                        if (address == null)
-                            continue;
-                        sendPacket.setAddress(address);
-                        Log.w(TAG, "send data II " + String.valueOf(sendPacket.getLength()) + " " + String.valueOf(sendPacket.getPort()) + " " + sendPacket.getAddress().toString());
-                        socket.send(sendPacket);
+                    batch.add(sendQueue.take());
+                    sendQueue.drainTo(batch, BATCH_SIZE - 1);
+                    coalescer.setWindow(coalesceWindowMS);
+                    pacer.setPacketsPerSecond(packetsPerSecond);
+
+                    for (SendEntry entry : batch) {
+                        try {
+                            sendEntry(entry);
+                        } catch (IOException e) {
+                            if (!shutdownThread)
+                                e.printStackTrace();
+                        }
                     }
-                } catch (IOException e) {
-                    if (!shutdownThread)
-                        e.printStackTrace();
                 } catch (InterruptedException e) {
                     return;
+                } finally {
+                    for (SendEntry entry : batch)
+                        pool.release(entry.data);
+                    batch.clear();
                 }
             }
         }
+
+        private void pace() throws InterruptedException {
+            long wait = pacer.reserve(System.nanoTime());
+            if (wait > 0)
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+
+        private void sendEntry(SendEntry entry) throws IOException, InterruptedException {
+            sendPacket.setPort(entry.sendPort);
+            sendPacket.setData(entry.data, 0, entry.data.length);
+
+            if (unicastPolicy.useUnicast(entry.address)) {
+                pace();
+                sendPacket.setAddress(entry.address);
+                socket.send(sendPacket);
+                unicastPolicy.countUnicast();
+                return;
+            }
+
+            if (coalescer.isDuplicate(entry.sendPort, entry.data, System.nanoTime()))
+                return;
+
+            // Sending to all interface broadcast addresses is more reliable than
+            // the multicast address.
+            int datagrams = 0;
+            List<InterfaceAddress> interfaceAddresses = networkInterface.getInterfaceAddresses();
+            for (InterfaceAddress interfaceAddress : interfaceAddresses) {
+                InetAddress address = interfaceAddress.getBroadcast();
+                if (address == null)
+                    continue;
+                pace();
+                sendPacket.setAddress(address);
+                if (Log.isLoggable(TAG, Log.DEBUG))
+                    Log.d(TAG, "send data II " + String.valueOf(sendPacket.getLength()) + " " + String.valueOf(sendPacket.getPort()) + " " + sendPacket.getAddress().toString());
+                socket.send(sendPacket);
+                ++datagrams;
+            }
+            unicastPolicy.countBroadcast(datagrams);
+        }
     }
 
     private class UDPMulticastSendReceiveThread extends Thread {
@@ -0,0 +1,110 @@
+package org.libbootstrapiotdevice.network;
+
+import android.support.annotation.Nullable;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides if a packet for a known device address is send directly to the device
+ * (unicast) or to all broadcast addresses of the interface. Broadcasts have to be
+ * received and decrypted by every device, with many devices unicast saves a lot of
+ * airtime and device CPU time.
+ * <p/>
+ * A device address is used for unicast until the configured amount of packets have
+ * been send to it without any response from that address. From then on packets for
+ * this address are broadcasted again, until the device answers. Packets without an
+ * address or for a multicast address are always broadcasted.
+ * <p/>
+ * Used by the send and the receive thread, all methods are thread safe.
+ */
+public class UnicastFallbackPolicy {
+    private boolean enabled = false;
+    private int fallbackAfter = 3;
+    // Address -> amount of unanswered unicast packets
+    private final Map<InetAddress, int[]> unanswered = new HashMap<>();
+
+    private final AtomicLong unicastPackets = new AtomicLong();
+    private final AtomicLong broadcastPackets = new AtomicLong();
+    private final AtomicLong broadcastDatagrams = new AtomicLong();
+
+    /**
+     * @param enabled       Use unicast for known device addresses. Everything is
+     *                      broadcasted if disabled (default).
+     * @param fallbackAfter Broadcast to an address after this amount of unanswered
+     *                      unicast packets.
+     */
+    public synchronized void setUnicast(boolean enabled, int fallbackAfter) {
+        this.enabled = enabled;
+        this.fallbackAfter = fallbackAfter;
+        unanswered.clear();
+    }
+
+    public synchronized boolean isUnicastEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Call this before sending a packet to the given address.
+     *
+     * @param address The destination address or null.
+     * @return Return true if the packet should be send to the address directly.
+     */
+    public synchronized boolean useUnicast(@Nullable InetAddress address) {
+        if (!enabled || address == null || address.isMulticastAddress())
+            return false;
+        int[] count = unanswered.get(address);
+        if (count == null) {
+            count = new int[1];
+            unanswered.put(address, count);
+        }
+        if (count[0] >= fallbackAfter)
+            return false;
+        ++count[0];
+        return true;
+    }
+
+    /**
+     * Call this for every received packet. A device that answers is reachable by unicast.
+     *
+     * @param address The sender address.
+     */
+    public synchronized void answered(InetAddress address) {
+        int[] count = unanswered.get(address);
+        if (count != null)
+            count[0] = 0;
+    }
+
+    void countUnicast() {
+        unicastPackets.incrementAndGet();
+    }
+
+    void countBroadcast(int datagrams) {
+        broadcastPackets.incrementAndGet();
+        broadcastDatagrams.addAndGet(datagrams);
+    }
+
+    /**
+     * @return Return the amount of packets that were send directly to a device.
+     */
+    public long getUnicastPackets() {
+        return unicastPackets.get();
+    }
+
+    /**
+     * @return Return the amount of packets that were broadcasted.
+     */
+    public long getBroadcastPackets() {
+        return broadcastPackets.get();
+    }
+
+    /**
+     * @return Return the amount of datagrams the broadcasted packets resulted in
+     * (one per broadcast address of the interface).
+     */
+    public long getBroadcastDatagrams() {
+        return broadcastDatagrams.get();
+    }
+}
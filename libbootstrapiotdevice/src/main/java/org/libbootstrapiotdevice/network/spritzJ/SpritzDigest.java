@@ -1,17 +1,22 @@
 package org.libbootstrapiotdevice.network.spritzJ;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 
 /**
  * Spritz message digest implementation. Creates 256 bits of output. Use it as
  * you would any other MessageDigest instance in Java, except of the direction
- * construction instead of a name lookup.
+ * construction instead of a name lookup (or install {@see SpritzProvider} and
+ * use MessageDigest.getInstance("Spritz")).
+ * <p/>
+ * Resetting reuses the state, clone() copies it. Hash a common prefix once and
+ * clone the digest for every message that starts with that prefix.
  */
-public class SpritzDigest extends MessageDigest {
+public class SpritzDigest extends MessageDigest implements Cloneable {
 
     public final static int DIGEST_LENGTH = 32;
     
-    private SpritzState ss;
+    private SpritzEngine ss;
 
     public SpritzDigest() {
         this("Spritz");
@@ -36,14 +41,25 @@ public class SpritzDigest extends MessageDigest {
     protected byte[] engineDigest() {
         byte[] result = new byte[DIGEST_LENGTH];
         this.ss.hashFinal(result, 0, result.length);
+        engineReset();
         return result;
     }
 
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+        if (len < DIGEST_LENGTH)
+            throw new DigestException("partial digests not returned");
+        if (buf.length - offset < DIGEST_LENGTH)
+            throw new DigestException("insufficient space in the output buffer to store the digest");
+        this.ss.hashFinal(buf, offset, DIGEST_LENGTH);
+        engineReset();
+        return DIGEST_LENGTH;
+    }
+
     @Override
     protected void engineReset() {
-        if (null != this.ss)
-            this.ss.erase();
-        this.ss = new SpritzState();
+        if (null == this.ss)
+            this.ss = SpritzFactory.newEngine();
         this.ss.hashInit();
     }
 
@@ -51,4 +67,12 @@ public class SpritzDigest extends MessageDigest {
     protected int engineGetDigestLength() {
         return DIGEST_LENGTH;
     }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        SpritzDigest copy = (SpritzDigest) super.clone();
+        copy.ss = SpritzFactory.newEngineLike(this.ss);
+        copy.ss.copyFrom(this.ss);
+        return copy;
+    }
 }
@@ -0,0 +1,55 @@
+package org.libbootstrapiotdevice.network.spritzJ;
+
+/**
+ * The public API of a Spritz implementation. {@see SpritzState} is the reference
+ * implementation, {@see SpritzStateFast} the optimized one. Create instances with
+ * {@see SpritzFactory#newEngine()}.
+ */
+public interface SpritzEngine {
+
+    void erase();
+
+    /**
+     * Make this state an exact copy of another state of the same implementation.
+     */
+    void copyFrom(SpritzEngine other);
+
+    // streaming API ...
+
+    void streamInit(byte[] key, int ofs, int len);
+
+    void streamRead(byte[] out, int ofs, int len);
+
+    // hash API ...
+
+    void hashInit();
+
+    void hashUpdate(int aByte);
+
+    void hashUpdate(byte[] buf, int ofs, int len);
+
+    void hashFinal(byte[] hash, int ofs, int len);
+
+    // encryption API ...
+
+    void cipherInit(byte[] key, int keyOfs, int keyLen,
+                    byte[] iv, int ivOfs, int ivLen);
+
+    /**
+     * Absorb only the key. The resulting state is a snapshot that can be passed to
+     * {@see #cipherInit(SpritzEngine, byte[], int, int)} for every new IV.
+     */
+    void cipherKeyInit(byte[] key, int keyOfs, int keyLen);
+
+    /**
+     * Same as {@see #cipherInit(byte[], int, int, byte[], int, int)}, but starts from a
+     * state that already absorbed the key (see {@see #cipherKeyInit(byte[], int, int)}).
+     */
+    void cipherInit(SpritzEngine keyState, byte[] iv, int ivOfs, int ivLen);
+
+    void cipherEncrypt(byte[] in, int inOfs, int len,
+                       byte[] out, int outOfs);
+
+    void cipherDecrypt(byte[] in, int inOfs, int len,
+                       byte[] out, int outOfs);
+}
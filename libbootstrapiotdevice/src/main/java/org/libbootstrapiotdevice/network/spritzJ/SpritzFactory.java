@@ -0,0 +1,25 @@
+package org.libbootstrapiotdevice.network.spritzJ;
+
+/**
+ * Creates Spritz engines. The optimized {@see SpritzStateFast} is used unless the
+ * reference implementation is selected. Select the implementation before creating
+ * engines, states of different implementations cannot be copied into each other.
+ */
+public class SpritzFactory {
+    private static volatile boolean useReference = false;
+
+    public static void setUseReference(boolean useReference) {
+        SpritzFactory.useReference = useReference;
+    }
+
+    public static SpritzEngine newEngine() {
+        return useReference ? new SpritzState() : new SpritzStateFast();
+    }
+
+    /**
+     * @return Return a new engine of the same implementation as the given one.
+     */
+    public static SpritzEngine newEngineLike(SpritzEngine engine) {
+        return engine instanceof SpritzStateFast ? new SpritzStateFast() : new SpritzState();
+    }
+}
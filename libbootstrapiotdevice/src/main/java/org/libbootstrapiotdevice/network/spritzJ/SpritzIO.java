@@ -3,42 +3,94 @@ package org.libbootstrapiotdevice.network.spritzJ;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SecureRandom;
 import java.util.Random;
 
 /**
  * Spritz cipher streams. Uses 10 bytes of IV/salt/nonce.
+ * <p/>
+ * The streams and channels work block wise: Decryption happens in place in the
+ * buffer of the caller, encryption over an internal chunk buffer, because the data
+ * of the caller must not be modified.
  */
 public class SpritzIO {
 
     final static int IV_LENGTH = 10;
-    
-    private static void forceRead(InputStream is, byte[] buf) throws IOException{
-        for (int i = 0; i < buf.length; i++) {
-            int b = is.read();
-            if (-1 == b)
+    final static int CHUNK_SIZE = 8192;
+
+    private static void forceRead(InputStream is, byte[] buf) throws IOException {
+        for (int ofs = 0; ofs < buf.length; ) {
+            int n = is.read(buf, ofs, buf.length - ofs);
+            if (-1 == n)
+                throw new IOException("unexpected end of stream");
+            ofs += n;
+        }
+    }
+
+    private static void forceRead(ReadableByteChannel ch, byte[] buf) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining()) {
+            if (-1 == ch.read(bb))
                 throw new IOException("unexpected end of stream");
-            buf[i] = (byte)b;
         }
     }
-    
+
+    private static void forceWrite(WritableByteChannel ch, ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining())
+            ch.write(bb);
+    }
+
+    private static byte[] newIV(Random rnd) {
+        byte[] iv = new byte[IV_LENGTH];
+        (null == rnd ? new SecureRandom() : rnd).nextBytes(iv);
+        return iv;
+    }
+
     public static InputStream newDecryptInputStream(final InputStream is,
             byte[] key, int keyOfs, int keyLen) throws IOException {
-        final SpritzState ss = new SpritzState();
+        final SpritzEngine ss = SpritzFactory.newEngine();
         byte[] iv = new byte[IV_LENGTH];
         forceRead(is, iv);
         ss.cipherInit(key, keyOfs, keyLen, iv, 0, iv.length);
         return new InputStream() {
             byte[] aByte = new byte[1];
+            byte[] skipBuffer;
 
             @Override
             public int read() throws IOException {
-                int b = is.read();
-                if (-1 == b)
-                    return -1;
-                this.aByte[0] = (byte)b;
-                ss.cipherDecrypt(this.aByte, 0, 1, this.aByte, 0);
-                return this.aByte[0] & 255;
+                int n = read(this.aByte, 0, 1);
+                return n <= 0 ? -1 : this.aByte[0] & 255;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = is.read(b, off, len);
+                if (n > 0)
+                    ss.cipherDecrypt(b, off, n, b, off);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // The key stream has to advance as well
+                if (null == this.skipBuffer)
+                    this.skipBuffer = new byte[CHUNK_SIZE];
+                long skipped = 0;
+                while (skipped < n) {
+                    int r = read(this.skipBuffer, 0, (int) Math.min(CHUNK_SIZE, n - skipped));
+                    if (r <= 0)
+                        break;
+                    skipped += r;
+                }
+                return skipped;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return is.available();
             }
 
             @Override
@@ -48,23 +100,42 @@ public class SpritzIO {
             }
         };
     }
-    
+
     public static OutputStream newEncryptOutputStream(final OutputStream os,
             byte[] key, int keyOfs, int keyLen, Random rnd) throws IOException {
-        byte[] iv = new byte[IV_LENGTH];
-        (null == rnd ? new SecureRandom() : rnd).nextBytes(iv);
-        final SpritzState ss = new SpritzState();
+        byte[] iv = newIV(rnd);
+        final SpritzEngine ss = SpritzFactory.newEngine();
         ss.cipherInit(key, keyOfs, keyLen, iv, 0, iv.length);
         os.write(iv);
         return new OutputStream() {
             byte[] aByte = new byte[1];
+            byte[] chunk;
 
             @Override
             public void write(int b) throws IOException {
+                this.aByte[0] = (byte) b;
                 ss.cipherEncrypt(this.aByte, 0, 1, this.aByte, 0);
                 os.write(this.aByte[0] & 255);
             }
 
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (null == this.chunk)
+                    this.chunk = new byte[CHUNK_SIZE];
+                while (len > 0) {
+                    int n = Math.min(len, CHUNK_SIZE);
+                    ss.cipherEncrypt(b, off, n, this.chunk, 0);
+                    os.write(this.chunk, 0, n);
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                os.flush();
+            }
+
             @Override
             public void close() throws IOException {
                 ss.erase();
@@ -72,4 +143,92 @@ public class SpritzIO {
             }
         };
     }
-}
\ No newline at end of file
+
+    public static ReadableByteChannel newDecryptChannel(final ReadableByteChannel ch,
+            byte[] key, int keyOfs, int keyLen) throws IOException {
+        final SpritzEngine ss = SpritzFactory.newEngine();
+        byte[] iv = new byte[IV_LENGTH];
+        forceRead(ch, iv);
+        ss.cipherInit(key, keyOfs, keyLen, iv, 0, iv.length);
+        return new ReadableByteChannel() {
+            ByteBuffer chunk;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (dst.hasArray()) {
+                    // Decrypt in place in the array of the caller
+                    int pos = dst.position();
+                    int n = ch.read(dst);
+                    if (n > 0)
+                        ss.cipherDecrypt(dst.array(), dst.arrayOffset() + pos, n,
+                                dst.array(), dst.arrayOffset() + pos);
+                    return n;
+                }
+                if (null == this.chunk)
+                    this.chunk = ByteBuffer.allocate(CHUNK_SIZE);
+                this.chunk.clear();
+                this.chunk.limit(Math.min(CHUNK_SIZE, dst.remaining()));
+                int n = ch.read(this.chunk);
+                if (n > 0) {
+                    ss.cipherDecrypt(this.chunk.array(), 0, n, this.chunk.array(), 0);
+                    dst.put(this.chunk.array(), 0, n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return ch.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ss.erase();
+                ch.close();
+            }
+        };
+    }
+
+    public static WritableByteChannel newEncryptChannel(final WritableByteChannel ch,
+            byte[] key, int keyOfs, int keyLen, Random rnd) throws IOException {
+        byte[] iv = newIV(rnd);
+        final SpritzEngine ss = SpritzFactory.newEngine();
+        ss.cipherInit(key, keyOfs, keyLen, iv, 0, iv.length);
+        forceWrite(ch, ByteBuffer.wrap(iv));
+        return new WritableByteChannel() {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int written = 0;
+                byte[] out = this.chunk.array();
+                while (src.hasRemaining()) {
+                    int n = Math.min(src.remaining(), CHUNK_SIZE);
+                    if (src.hasArray()) {
+                        ss.cipherEncrypt(src.array(), src.arrayOffset() + src.position(), n, out, 0);
+                        src.position(src.position() + n);
+                    } else {
+                        src.get(out, 0, n);
+                        ss.cipherEncrypt(out, 0, n, out, 0);
+                    }
+                    this.chunk.clear();
+                    this.chunk.limit(n);
+                    forceWrite(ch, this.chunk);
+                    written += n;
+                }
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return ch.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                ss.erase();
+                ch.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,88 @@
+package org.libbootstrapiotdevice.network.spritzJ;
+
+/**
+ * Caches initialized cipher states for a few key/IV combinations. The key setup
+ * and the shuffle after absorbing the IV are by far the most expensive part of
+ * encrypting a short packet. Packets with a known key and IV only copy the cached
+ * 256 entry state instead.
+ * <p/>
+ * Keys and IVs are compared by content, the callers may change their arrays in place.
+ * If the IV changes but the key is known, only the IV is absorbed into a copy of the
+ * cached key state. Not thread safe.
+ */
+public class SpritzKeyCache {
+    private final byte[][] keys;
+    private final int[] keyLens;
+    private final byte[][] ivs;
+    private final int[] ivLens;
+    private final SpritzEngine[] keyStates;
+    private final SpritzEngine[] cipherStates;
+    private int next = 0;
+
+    /**
+     * @param size Amount of key/IV combinations to remember.
+     */
+    public SpritzKeyCache(int size) {
+        keys = new byte[size][];
+        keyLens = new int[size];
+        ivs = new byte[size][];
+        ivLens = new int[size];
+        keyStates = new SpritzEngine[size];
+        cipherStates = new SpritzEngine[size];
+    }
+
+    /**
+     * Initialize the given state for encryption/decryption with the key and IV.
+     * Equal to state.cipherInit(key, 0, keyLen, iv, 0, ivLen).
+     */
+    public void cipherInit(SpritzEngine state, byte[] key, int keyLen, byte[] iv, int ivLen) {
+        int keySlot = -1;
+        for (int slot = 0; slot < keys.length; ++slot) {
+            if (keys[slot] == null || !regionEquals(keys[slot], keyLens[slot], key, keyLen))
+                continue;
+            if (regionEquals(ivs[slot], ivLens[slot], iv, ivLen)) {
+                state.copyFrom(cipherStates[slot]);
+                return;
+            }
+            keySlot = slot;
+        }
+
+        int slot = next;
+        next = (next + 1) % keys.length;
+
+        if (keyStates[slot] == null) {
+            keyStates[slot] = SpritzFactory.newEngineLike(state);
+            cipherStates[slot] = SpritzFactory.newEngineLike(state);
+            keys[slot] = new byte[keyLen];
+            ivs[slot] = new byte[ivLen];
+        }
+        if (keySlot == -1)
+            keyStates[slot].cipherKeyInit(key, 0, keyLen);
+        else if (keySlot != slot)
+            keyStates[slot].copyFrom(keyStates[keySlot]);
+        cipherStates[slot].cipherInit(keyStates[slot], iv, 0, ivLen);
+
+        keys[slot] = copy(keys[slot], key, keyLen);
+        keyLens[slot] = keyLen;
+        ivs[slot] = copy(ivs[slot], iv, ivLen);
+        ivLens[slot] = ivLen;
+
+        state.copyFrom(cipherStates[slot]);
+    }
+
+    private static boolean regionEquals(byte[] a, int aLen, byte[] b, int bLen) {
+        if (aLen != bLen)
+            return false;
+        for (int i = 0; i < aLen; ++i)
+            if (a[i] != b[i])
+                return false;
+        return true;
+    }
+
+    private static byte[] copy(byte[] dest, byte[] src, int len) {
+        if (dest.length < len)
+            dest = new byte[len];
+        System.arraycopy(src, 0, dest, 0, len);
+        return dest;
+    }
+}
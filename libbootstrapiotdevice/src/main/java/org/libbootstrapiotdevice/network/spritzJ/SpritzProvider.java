@@ -0,0 +1,26 @@
+package org.libbootstrapiotdevice.network.spritzJ;
+
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * JCA provider for {@see SpritzDigest}. After {@see #install()} the digest is
+ * available as MessageDigest.getInstance("Spritz").
+ */
+public class SpritzProvider extends Provider {
+    private static final long serialVersionUID = 1L;
+    public final static String NAME = "Spritz";
+
+    public SpritzProvider() {
+        super(NAME, 1.0, "Spritz message digest");
+        put("MessageDigest.Spritz", SpritzDigest.class.getName());
+    }
+
+    /**
+     * Register the provider once.
+     */
+    public static synchronized void install() {
+        if (Security.getProvider(NAME) == null)
+            Security.addProvider(new SpritzProvider());
+    }
+}
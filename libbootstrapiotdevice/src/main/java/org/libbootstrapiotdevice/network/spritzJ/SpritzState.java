@@ -4,10 +4,10 @@ import java.util.Arrays;
 
 // NOTE: implemented for clarity right now, certain quick optimization attempts
 //       didn't yield any real performance gains, the JIT seems to be already
-//       producing decent code now; aggressive unrolling hasn't been tested yet
-//       though ...
+//       producing decent code now; the unrolled variant is SpritzStateFast,
+//       this class stays the readable reference implementation ...
 
-public class SpritzState {
+public class SpritzState implements SpritzEngine {
 
     final static int N = 256;
 
@@ -23,7 +23,11 @@ public class SpritzState {
     private int a, i, j, k, w, z;
 
     private void initializeState() {
-        this.s = S_INIT.clone();
+        // Reuse the state array, cipherInit() is called for every packet
+        if (this.s == null)
+            this.s = S_INIT.clone();
+        else
+            System.arraycopy(S_INIT, 0, this.s, 0, N);
         this.a = this.i = this.j = this.k = this.z = 0;
         this.w = 1;
     }
@@ -140,6 +144,24 @@ public class SpritzState {
        this.a = this.i = this.j = this.k = this.w = this.z = 0;
     }
 
+    /**
+     * Make this state an exact copy of another state. Only copies the 256 entries of
+     * the state array and the registers, use it to restore a snapshot instead of
+     * running the key setup again.
+     */
+    public void copyFrom(SpritzEngine engine) {
+        SpritzState other = (SpritzState) engine;
+        if (this.s == null)
+            this.s = new int[N];
+        System.arraycopy(other.s, 0, this.s, 0, N);
+        this.a = other.a;
+        this.i = other.i;
+        this.j = other.j;
+        this.k = other.k;
+        this.w = other.w;
+        this.z = other.z;
+    }
+
     ///////////////////////////////////////////////////////////////////////////
 
     // streaming API ...
@@ -190,8 +212,26 @@ public class SpritzState {
     public void cipherInit(byte[] key, int keyOfs, int keyLen,
                            byte[] iv , int ivOfs , int ivLen) {
         keySetup(key, keyOfs, keyLen);
+        cipherAbsorbIV(iv, ivOfs, ivLen);
+    }
+
+    public void cipherKeyInit(byte[] key, int keyOfs, int keyLen) {
+        keySetup(key, keyOfs, keyLen);
+    }
+
+    public void cipherInit(SpritzEngine keyState, byte[] iv, int ivOfs, int ivLen) {
+        copyFrom(keyState);
+        cipherAbsorbIV(iv, ivOfs, ivLen);
+    }
+
+    private void cipherAbsorbIV(byte[] iv, int ivOfs, int ivLen) {
         absorbStop();
         absorb(iv, ivOfs, ivLen);
+        // The first drip() would shuffle anyway. Doing it here makes a snapshot of
+        // this state ready to use, without another shuffle per copy.
+        if (this.a > 0) {
+            shuffle();
+        }
     }
     
     public void cipherEncrypt(byte[] in , int inOfs , int len,
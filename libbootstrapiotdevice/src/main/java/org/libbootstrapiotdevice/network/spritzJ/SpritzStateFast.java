@@ -0,0 +1,243 @@
+package org.libbootstrapiotdevice.network.spritzJ;
+
+import java.util.Arrays;
+
+/**
+ * Optimized Spritz implementation with the same output as {@see SpritzState}.
+ * <p/>
+ * The hot loops work on local copies of the registers and the state array, which the
+ * compiler can keep in CPU registers, instead of reading and writing fields for every
+ * step. whip() and crush() are unrolled, encryption, decryption and squeezing generate
+ * the key stream inline instead of calling drip() per byte.
+ * <p/>
+ * The permutation stays an int array: A byte array needs a sign mask for every read and
+ * measured slower than the int array.
+ */
+public class SpritzStateFast implements SpritzEngine {
+
+    final static int N = 256;
+
+    final static int[] S_INIT = new int[N];
+    static {
+        for (int i = 0; i < S_INIT.length; i++)
+            S_INIT[i] = i;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    private final int[] s = new int[N];
+    private int a, i, j, k, w, z;
+
+    private void initializeState() {
+        System.arraycopy(S_INIT, 0, this.s, 0, N);
+        this.a = this.i = this.j = this.k = this.z = 0;
+        this.w = 1;
+    }
+
+    private void whip() {
+        final int[] s = this.s;
+        int i = this.i, j = this.j, k = this.k;
+        final int w = this.w;
+        // N * 2 updates, unrolled by two
+        for (int v = 0; v < N * 2; v += 2) {
+            i = (i + w) & 255;
+            int si = s[i];
+            j = (k + s[(j + si) & 255]) & 255;
+            int sj = s[j];
+            k = (i + k + sj) & 255;
+            s[i] = sj;
+            s[j] = si;
+
+            i = (i + w) & 255;
+            si = s[i];
+            j = (k + s[(j + si) & 255]) & 255;
+            sj = s[j];
+            k = (i + k + sj) & 255;
+            s[i] = sj;
+            s[j] = si;
+        }
+        this.i = i;
+        this.j = j;
+        this.k = k;
+        this.w = w + 2;
+    }
+
+    private void crush() {
+        final int[] s = this.s;
+        // N / 2 compare-and-swaps, unrolled by four
+        for (int v = 0; v < N / 2; v += 4) {
+            int y = (N - 1) - v;
+            int x1 = s[v], x2 = s[y];
+            if (x1 > x2) { s[v] = x2; s[y] = x1; }
+            x1 = s[v + 1]; x2 = s[y - 1];
+            if (x1 > x2) { s[v + 1] = x2; s[y - 1] = x1; }
+            x1 = s[v + 2]; x2 = s[y - 2];
+            if (x1 > x2) { s[v + 2] = x2; s[y - 2] = x1; }
+            x1 = s[v + 3]; x2 = s[y - 3];
+            if (x1 > x2) { s[v + 3] = x2; s[y - 3] = x1; }
+        }
+    }
+
+    private void shuffle() {
+        whip();
+        crush();
+        whip();
+        crush();
+        whip();
+        this.a = 0;
+    }
+
+    private void absorbStop() {
+        if (this.a == N / 2) {
+            shuffle();
+        }
+        this.a++;
+    }
+
+    private void absorbNibble(int x) {
+        if (this.a == N / 2) {
+            shuffle();
+        }
+        int y = N / 2 + x;
+        int t = this.s[this.a];
+        this.s[this.a] = this.s[y];
+        this.s[y] = t;
+        this.a++;
+    }
+
+    private void absorbByte(int b) {
+        absorbNibble(b & 15);
+        absorbNibble((b >>> 4) & 15);
+    }
+
+    private void absorb(byte[] msg, int ofs, int len) {
+        for (int end = ofs + len; ofs < end; ofs++) {
+            absorbByte(msg[ofs]);
+        }
+    }
+
+    /**
+     * Generate len bytes of key stream and combine it with the input:
+     * out = in + stream (mode 1), out = in - stream (mode -1) or out = stream (mode 0).
+     */
+    private void squeeze(byte[] in, int inOfs, byte[] out, int outOfs, int len, int mode) {
+        if (this.a > 0) {
+            shuffle();
+        }
+        final int[] s = this.s;
+        int i = this.i, j = this.j, k = this.k, z = this.z;
+        final int w = this.w;
+        for (int n = 0; n < len; n++) {
+            // update()
+            i = (i + w) & 255;
+            int si = s[i];
+            j = (k + s[(j + si) & 255]) & 255;
+            int sj = s[j];
+            k = (i + k + sj) & 255;
+            s[i] = sj;
+            s[j] = si;
+            // output()
+            z = s[(j + s[(i + s[(z + k) & 255]) & 255]) & 255];
+
+            if (mode == 0)
+                out[outOfs + n] = (byte) z;
+            else
+                out[outOfs + n] = (byte) (in[inOfs + n] + mode * z);
+        }
+        this.i = i;
+        this.j = j;
+        this.k = k;
+        this.z = z;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    public void erase() {
+        Arrays.fill(this.s, 0);
+        this.a = this.i = this.j = this.k = this.w = this.z = 0;
+    }
+
+    public void copyFrom(SpritzEngine engine) {
+        SpritzStateFast other = (SpritzStateFast) engine;
+        System.arraycopy(other.s, 0, this.s, 0, N);
+        this.a = other.a;
+        this.i = other.i;
+        this.j = other.j;
+        this.k = other.k;
+        this.w = other.w;
+        this.z = other.z;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // streaming API ...
+
+    public void streamInit(byte[] key, int ofs, int len) {
+        initializeState();
+        absorb(key, ofs, len);
+    }
+
+    public void streamRead(byte[] out, int ofs, int len) {
+        squeeze(null, 0, out, ofs, len, 0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // hash API ...
+
+    public void hashInit() {
+        initializeState();
+    }
+
+    public void hashUpdate(int aByte) {
+        absorbByte(aByte);
+    }
+
+    public void hashUpdate(byte[] buf, int ofs, int len) {
+        absorb(buf, ofs, len);
+    }
+
+    public void hashFinal(byte[] hash, int ofs, int len) {
+        absorbStop();
+        absorbByte(len & 255);
+        squeeze(null, 0, hash, ofs, len, 0);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+
+    // encryption API ...
+
+    public void cipherInit(byte[] key, int keyOfs, int keyLen,
+                           byte[] iv , int ivOfs , int ivLen) {
+        cipherKeyInit(key, keyOfs, keyLen);
+        cipherAbsorbIV(iv, ivOfs, ivLen);
+    }
+
+    public void cipherKeyInit(byte[] key, int keyOfs, int keyLen) {
+        initializeState();
+        absorb(key, keyOfs, keyLen);
+    }
+
+    public void cipherInit(SpritzEngine keyState, byte[] iv, int ivOfs, int ivLen) {
+        copyFrom(keyState);
+        cipherAbsorbIV(iv, ivOfs, ivLen);
+    }
+
+    private void cipherAbsorbIV(byte[] iv, int ivOfs, int ivLen) {
+        absorbStop();
+        absorb(iv, ivOfs, ivLen);
+        if (this.a > 0) {
+            shuffle();
+        }
+    }
+
+    public void cipherEncrypt(byte[] in , int inOfs , int len,
+                              byte[] out, int outOfs) {
+        squeeze(in, inOfs, out, outOfs, len, 1);
+    }
+
+    public void cipherDecrypt(byte[] in , int inOfs , int len,
+                              byte[] out, int outOfs) {
+        squeeze(in, inOfs, out, outOfs, len, -1);
+    }
+}
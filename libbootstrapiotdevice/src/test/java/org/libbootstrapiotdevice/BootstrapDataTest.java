@@ -0,0 +1,58 @@
+package org.libbootstrapiotdevice;
+
+import org.junit.Test;
+import org.libbootstrapiotdevice.network.BootstrapCore;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the serialization of the bootstrap data.
+ */
+public class BootstrapDataTest {
+    @Test
+    public void testPayload() throws Exception {
+        BootstrapData data = new BootstrapData();
+        data.setWifiData("wifi\u00e4", "pwd");
+        data.addAdditionalData("key\tA", "value");
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assertEquals(data.getPayload().size(), data.addDataToStream(stream));
+        // UTF-8 encoded, tabs in keys and values are replaced
+        byte[] expected = "wifi\u00e4\0pwd\0key A\tvalue\t\0".getBytes("UTF-8");
+        assertTrue(Arrays.equals(expected, stream.toByteArray()));
+    }
+
+    @Test
+    public void testPayloadCached() throws Exception {
+        BootstrapData data = new BootstrapData();
+        data.setWifiData("wifi", null);
+        BootstrapData.Payload payload = data.getPayload();
+        assertSame(payload, data.getPayload());
+        assertEquals("wifi\0\0\0".length(), payload.size());
+
+        // Every change serializes again
+        data.addAdditionalData("key", "value");
+        assertNotSame(payload, data.getPayload());
+    }
+
+    @Test
+    public void testPayloadTooLarge() throws Exception {
+        BootstrapData data = new BootstrapData();
+        data.setWifiData("wifi", "pwd");
+        char[] value = new char[BootstrapCore.BST_STORAGE_RAM_SIZE];
+        Arrays.fill(value, 'x');
+        data.addAdditionalData("key", new String(value));
+        try {
+            data.getPayload();
+            fail("Data larger than the device storage accepted");
+        } catch (RuntimeException ignored) {
+        }
+    }
+}
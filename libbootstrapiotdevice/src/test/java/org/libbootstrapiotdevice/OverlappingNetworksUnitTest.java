@@ -4,9 +4,12 @@ import org.junit.Test;
 import org.libbootstrapiotdevice.network.DeviceState;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -14,44 +17,38 @@ import static org.junit.Assert.assertTrue;
  */
 public class OverlappingNetworksUnitTest {
     OverlappingNetworks networks = new OverlappingNetworks();
+
+    private static WirelessNetwork network(String ssid, int strength) {
+        WirelessNetwork network = new WirelessNetwork();
+        network.strength = strength;
+        network.ssid = ssid;
+        network.pwd = "pwd";
+        return network;
+    }
+
+    private static BootstrapDevice device(String uid, WirelessNetwork... reachable) {
+        BootstrapDevice device = new BootstrapDevice(null);
+        device.setName("name");
+        update(device, uid, reachable);
+        return device;
+    }
+
+    private static void update(BootstrapDevice device, String uid, WirelessNetwork... reachable) {
+        device.updateState(uid, DeviceMode.Bound, DeviceState.STATE_OK, new ArrayList<>(Arrays.asList(reachable)),
+                new byte[0], new byte[0], 0, 0);
+    }
+
     @Test
     public void overlap_test() throws Exception {
-        WirelessNetwork net1 = new WirelessNetwork();
-        net1.strength = 90;
-        net1.ssid = "net1";
-        net1.pwd = "pwd";
-        WirelessNetwork net2a = new WirelessNetwork();
-        net2a.strength = 30;
-        net2a.ssid = "net2";
-        net2a.pwd = "pwd";
-        WirelessNetwork net2b = new WirelessNetwork();
-        net2b.strength = 70;
-        net2b.ssid = "net2";
-        net2b.pwd = "pwd";
-        WirelessNetwork net3 = new WirelessNetwork();
-        net3.strength = 50;
-        net3.ssid = "net3";
-        net3.pwd = "pwd";
-
-        {
-            BootstrapDevice testDevice1 = new BootstrapDevice("uid1", "name1", null);
-            List<WirelessNetwork> networks1 = new ArrayList<>();
-            networks1.add(net1);
-            networks1.add(net2a);
-            testDevice1.updateState(DeviceMode.Bound, DeviceState.STATE_OK, networks1, "", new byte[0], new byte[0], 0, 0);
-            networks.addDevice(testDevice1);
-        }
+        WirelessNetwork net1 = network("net1", 90);
+        WirelessNetwork net2a = network("net2", 30);
+        WirelessNetwork net2b = network("net2", 70);
+        WirelessNetwork net3 = network("net3", 50);
 
-        {
-            BootstrapDevice testDevice1 = new BootstrapDevice("uid2", "name2", null);
-            List<WirelessNetwork> networks1 = new ArrayList<>();
-            networks1.add(net2b);
-            networks1.add(net3);
-            testDevice1.updateState(DeviceMode.Bound, DeviceState.STATE_OK, networks1, "", new byte[0], new byte[0], 0, 0);
-            networks.addDevice(testDevice1);
-        }
+        networks.addDevice(device("uid1", net1, net2a));
+        networks.addDevice(device("uid2", net2b, net3));
 
-        assertEquals(2, networks.devices.size());
+        assertEquals(2, networks.deviceCount());
         assertEquals(3, networks.networks.size());
         assertEquals(net1.ssid, networks.networks.get(0).ssid);
         assertEquals(net2a.ssid, networks.networks.get(1).ssid);
@@ -64,4 +61,112 @@ public class OverlappingNetworksUnitTest {
         int net_avg = networks.networks.get(1).getStrength();
         assertTrue(net_avg == avg);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void update_and_remove_test() throws Exception {
+        final List<String> events = new ArrayList<>();
+        networks.setChangeListener(new OverlappingNetworks.ChangeListener() {
+            @Override
+            public void networkUpdated(int index, boolean added) {
+                events.add((added ? "added " : "updated ") + index);
+            }
+
+            @Override
+            public void networkRemoved(int index) {
+                events.add("removed " + index);
+            }
+        });
+
+        BootstrapDevice device1 = device("uid1", network("net1", 90), network("net2", 30));
+        BootstrapDevice device2 = device("uid2", network("net2", 70), network("net3", 50));
+        networks.addDevice(device1);
+        networks.addDevice(device2);
+        assertEquals(Arrays.asList("added 0", "added 1", "updated 1", "added 2"), events);
+
+        // The same device again does not change anything
+        events.clear();
+        networks.addDevice(device1);
+        assertEquals(2, networks.deviceCount());
+        assertTrue(events.isEmpty());
+
+        // Device 1 does not reach net1 anymore and has a better signal for net2
+        update(device1, "uid1", network("net2", 50));
+        networks.addDevice(device1);
+        assertEquals(Arrays.asList("updated 1", "removed 0"), events);
+        assertNull(networks.getNetwork("net1"));
+        assertEquals(0, networks.indexOf("net2"));
+        assertEquals(1, networks.indexOf("net3"));
+        assertEquals(60, networks.getNetwork("net2").getStrength());
+
+        events.clear();
+        assertTrue(networks.removeDevice(device2));
+        assertFalse(networks.removeDevice(device2));
+        assertEquals(Arrays.asList("updated 0", "removed 1"), events);
+        assertEquals(1, networks.deviceCount());
+        assertEquals(1, networks.networks.size());
+        assertEquals(50, networks.getNetwork("net2").getStrength());
+        assertEquals(1, networks.getNetwork("net2").deviceCount());
+    }
+
+    @Test
+    public void aggregates_test() throws Exception {
+        WirelessNetworkWithUsage network = new WirelessNetworkWithUsage(network("net", 0));
+        assertEquals(0, network.getMinStrength());
+        assertEquals(0, network.getStrengthPercentile(50));
+
+        BootstrapDevice[] devices = new BootstrapDevice[100];
+        for (int i = 0; i < devices.length; ++i) {
+            devices[i] = device("uid" + i);
+            // 1..100
+            network.addDevice(devices[i], i + 1);
+        }
+        assertEquals(50, network.getStrength());
+        assertEquals(1, network.getMinStrength());
+        assertEquals(100, network.getMaxStrength());
+        assertEquals(25, network.getStrengthPercentile(25));
+        assertEquals(50, network.getStrengthPercentile(50));
+        assertEquals(1, network.getStrengthPercentile(0));
+        assertEquals(100, network.getStrengthPercentile(100));
+
+        // Updates and removals of the extremes move the minimum and maximum
+        assertFalse(network.addDevice(devices[0], 1));
+        assertTrue(network.addDevice(devices[0], 60));
+        assertEquals(2, network.getMinStrength());
+        assertTrue(network.removeDevice(devices[99]));
+        assertEquals(99, network.getMaxStrength());
+        assertEquals(99, network.deviceCount());
+
+        for (BootstrapDevice device : devices)
+            network.removeDevice(device);
+        assertEquals(0, network.deviceCount());
+        assertEquals(0, network.getStrength());
+        assertEquals(0, network.getMaxStrength());
+        network.addDevice(devices[0], 42);
+        assertEquals(42, network.getMinStrength());
+        assertEquals(42, network.getMaxStrength());
+    }
+
+    @Test
+    public void best_networks_test() throws Exception {
+        networks.addDevice(device("uid1", network("weak", 20), network("strong", 90), network("single", 100)));
+        networks.addDevice(device("uid2", network("weak", 30), network("strong", 80)));
+        networks.addDevice(device("uid3", network("weak", 10)));
+
+        List<WirelessNetworkWithUsage> best = networks.getBestNetworks(2);
+        assertEquals(2, best.size());
+        // Reached by all devices
+        assertEquals("weak", best.get(0).ssid);
+        // Reached by two devices
+        assertEquals("strong", best.get(1).ssid);
+        assertEquals("single", networks.getBestNetworks(10).get(2).ssid);
+
+        // Same coverage: The weakest devices decide, not the average
+        networks.addDevice(device("uid4", network("even", 60), network("uneven", 100)));
+        networks.addDevice(device("uid5", network("even", 60), network("uneven", 20)));
+        networks.addDevice(device("uid6", network("even", 60), network("uneven", 100)));
+        networks.addDevice(device("uid7", network("even", 60), network("uneven", 100)));
+        best = networks.getBestNetworks(10);
+        assertTrue(networks.getNetwork("uneven").getStrength() > networks.getNetwork("even").getStrength());
+        assertTrue(best.indexOf(networks.getNetwork("even")) < best.indexOf(networks.getNetwork("uneven")));
+    }
+}
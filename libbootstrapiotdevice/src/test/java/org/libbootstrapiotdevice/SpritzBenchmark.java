@@ -0,0 +1,73 @@
+package org.libbootstrapiotdevice;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzEngine;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzStateFast;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Logs MB/s of encryption, decryption and hashing for the reference and the
+ * optimized Spritz implementation.
+ * <p/>
+ * Not part of the test run, the equality of both is tested by {@see SpritzStateFastTest}.
+ */
+public class SpritzBenchmark {
+    private final static Logger LOGGER = Logger.getLogger(SpritzBenchmark.class.getName());
+    private static final int BYTES_PER_RUN = 2 * 1024 * 1024;
+    private static final int BLOCK = 1024;
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (Math.max(nanos, 1) / 1e9);
+    }
+
+    private static double encrypt(SpritzEngine ss, byte[] data, boolean decrypt) {
+        byte[] key = "benchmark".getBytes();
+        ss.cipherInit(key, 0, key.length, key, 0, key.length);
+        long start = System.nanoTime();
+        for (int n = 0; n < BYTES_PER_RUN; n += BLOCK) {
+            if (decrypt)
+                ss.cipherDecrypt(data, 0, BLOCK, data, 0);
+            else
+                ss.cipherEncrypt(data, 0, BLOCK, data, 0);
+        }
+        return mbPerSecond(BYTES_PER_RUN, System.nanoTime() - start);
+    }
+
+    private static double hash(SpritzEngine ss, byte[] data) {
+        byte[] hash = new byte[32];
+        long start = System.nanoTime();
+        ss.hashInit();
+        for (int n = 0; n < BYTES_PER_RUN; n += BLOCK)
+            ss.hashUpdate(data, 0, BLOCK);
+        ss.hashFinal(hash, 0, hash.length);
+        return mbPerSecond(BYTES_PER_RUN, System.nanoTime() - start);
+    }
+
+    private static void run(String name, SpritzEngine ss, byte[] data, boolean log) {
+        double encrypt = encrypt(ss, data, false);
+        double decrypt = encrypt(ss, data, true);
+        double hash = hash(ss, data);
+        if (log)
+            LOGGER.info(String.format("Spritz %-9s: encrypt %6.1f MB/s, decrypt %6.1f MB/s, hash %6.1f MB/s",
+                    name, encrypt, decrypt, hash));
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkSpritz() throws Exception {
+        byte[] data = new byte[BLOCK];
+        new Random(1).nextBytes(data);
+
+        // Warm up the JIT
+        for (int i = 0; i < 3; ++i) {
+            run("reference", new SpritzState(), data, false);
+            run("fast", new SpritzStateFast(), data, false);
+        }
+        run("reference", new SpritzState(), data, true);
+        run("fast", new SpritzStateFast(), data, true);
+    }
+}
@@ -5,9 +5,11 @@ import java.util.Arrays;
 
 import org.junit.Test;
 import org.libbootstrapiotdevice.network.spritzJ.SpritzDigest;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzProvider;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class SpritzDigestTest {
     
@@ -32,4 +34,48 @@ public class SpritzDigestTest {
             assertTrue(Arrays.equals(a,  b));
         }
     }
+
+    private static byte[] digestOf(String message) {
+        MessageDigest md = new SpritzDigest();
+        md.update(message.getBytes());
+        return md.digest();
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        MessageDigest md = new SpritzDigest();
+        byte[] out = new byte[40];
+        for (String message : new String[]{"ABC", "spam", "arcfour"}) {
+            // digest() resets, the same instance is reused for every message
+            md.update(message.getBytes());
+            assertEquals(32, md.digest(out, 4, 36));
+            assertTrue(Arrays.equals(digestOf(message), Arrays.copyOfRange(out, 4, 36)));
+        }
+        md.update("garbage".getBytes());
+        md.reset();
+        md.update("spam".getBytes());
+        assertTrue(Arrays.equals(digestOf("spam"), md.digest()));
+    }
+
+    @Test
+    public void testClonePrefix() throws Exception {
+        MessageDigest prefix = new SpritzDigest();
+        prefix.update("uid:".getBytes());
+        for (String uid : new String[]{"ABCDEF", "123456"}) {
+            MessageDigest md = (MessageDigest) prefix.clone();
+            assertNotSame(prefix, md);
+            md.update(uid.getBytes());
+            assertTrue(Arrays.equals(digestOf("uid:" + uid), md.digest()));
+        }
+    }
+
+    @Test
+    public void testProvider() throws Exception {
+        SpritzProvider.install();
+        SpritzProvider.install();
+        MessageDigest md = MessageDigest.getInstance("Spritz");
+        md.update("arcfour".getBytes());
+        assertTrue(Arrays.equals(digestOf("arcfour"), md.digest()));
+        assertEquals(32, md.getDigestLength());
+    }
 }
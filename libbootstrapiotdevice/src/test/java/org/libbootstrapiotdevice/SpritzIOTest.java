@@ -1,13 +1,22 @@
 package org.libbootstrapiotdevice;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 import org.libbootstrapiotdevice.network.spritzJ.SpritzIO;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class SpritzIOTest {
 
@@ -26,4 +35,85 @@ public class SpritzIOTest {
         assertEquals(sis.read(), -1);
         sis.close();
     }
+
+    private static byte[] readAll(InputStream is, int maxChunk, Random random) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[maxChunk];
+        while (true) {
+            int n = is.read(buf, 0, 1 + random.nextInt(maxChunk));
+            if (n == -1)
+                return out.toByteArray();
+            out.write(buf, 0, n);
+        }
+    }
+
+    @Test
+    public void testBulkRoundTrip() throws IOException {
+        Random random = new Random(1);
+        byte[] k = "test123".getBytes();
+        byte[] plain = new byte[100000];
+        random.nextBytes(plain);
+        byte[] copy = plain.clone();
+
+        // Mix single byte and bulk writes, both have to produce the same key stream
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        OutputStream sos = SpritzIO.newEncryptOutputStream(encrypted, k, 0, k.length, random);
+        for (int ofs = 0; ofs < plain.length; ) {
+            int n = Math.min(plain.length - ofs, random.nextInt(20000));
+            if (n < 10) {
+                for (int i = 0; i < n; ++i)
+                    sos.write(plain[ofs + i]);
+            } else
+                sos.write(plain, ofs, n);
+            ofs += n;
+        }
+        sos.close();
+        // The data of the caller is not modified
+        assertTrue(Arrays.equals(copy, plain));
+        assertEquals(plain.length + 10, encrypted.size());
+
+        InputStream sis = SpritzIO.newDecryptInputStream(
+                new ByteArrayInputStream(encrypted.toByteArray()), k, 0, k.length);
+        assertEquals(plain[0] & 255, sis.read());
+        assertEquals(99, sis.skip(99));
+        byte[] decrypted = readAll(sis, 30000, random);
+        sis.close();
+        assertTrue(Arrays.equals(Arrays.copyOfRange(plain, 100, plain.length), decrypted));
+    }
+
+    @Test
+    public void testChannelRoundTrip() throws IOException {
+        Random random = new Random(2);
+        byte[] k = "test123".getBytes();
+        byte[] plain = new byte[50000];
+        random.nextBytes(plain);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        WritableByteChannel wch = SpritzIO.newEncryptChannel(Channels.newChannel(encrypted), k, 0, k.length, random);
+        // Heap and direct buffers
+        wch.write(ByteBuffer.wrap(plain, 0, 20000));
+        ByteBuffer direct = ByteBuffer.allocateDirect(plain.length - 20000);
+        direct.put(plain, 20000, plain.length - 20000).flip();
+        wch.write(direct);
+        wch.close();
+
+        // Channel output is readable by the stream API
+        InputStream sis = SpritzIO.newDecryptInputStream(
+                new ByteArrayInputStream(encrypted.toByteArray()), k, 0, k.length);
+        assertTrue(Arrays.equals(plain, readAll(sis, 4096, random)));
+
+        ReadableByteChannel rch = SpritzIO.newDecryptChannel(
+                Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())), k, 0, k.length);
+        ByteBuffer heap = ByteBuffer.allocate(30000);
+        direct = ByteBuffer.allocateDirect(plain.length);
+        while (heap.hasRemaining() && rch.read(heap) != -1) ;
+        while (rch.read(direct) > 0) ;
+        rch.close();
+        heap.flip();
+        direct.flip();
+        byte[] decrypted = new byte[plain.length];
+        heap.get(decrypted, 0, 30000);
+        direct.get(decrypted, 30000, plain.length - 30000);
+        assertTrue(Arrays.equals(plain, decrypted));
+    }
 }
@@ -0,0 +1,52 @@
+package org.libbootstrapiotdevice;
+
+import org.junit.Test;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzEngine;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzStateFast;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the known answer tests of {@see SpritzStateTest} against the optimized
+ * implementation and compares it with the reference implementation.
+ */
+public class SpritzStateFastTest extends SpritzStateTest {
+
+    @Override
+    protected SpritzEngine newState() {
+        return new SpritzStateFast();
+    }
+
+    @Test
+    public void testSameAsReference() {
+        Random random = new Random(11);
+        for (int n = 0; n < 50; ++n) {
+            byte[] key = new byte[1 + random.nextInt(100)];
+            byte[] iv = new byte[random.nextInt(20)];
+            byte[] data = new byte[random.nextInt(2000)];
+            random.nextBytes(key);
+            random.nextBytes(iv);
+            random.nextBytes(data);
+
+            SpritzEngine reference = new SpritzState();
+            SpritzEngine fast = new SpritzStateFast();
+            reference.cipherInit(key, 0, key.length, iv, 0, iv.length);
+            fast.cipherInit(key, 0, key.length, iv, 0, iv.length);
+            assertTrue(Arrays.equals(encrypt(reference, data), encrypt(fast, data)));
+
+            byte[] hash1 = new byte[32];
+            byte[] hash2 = new byte[32];
+            reference.hashInit();
+            reference.hashUpdate(data, 0, data.length);
+            reference.hashFinal(hash1, 0, hash1.length);
+            fast.hashInit();
+            fast.hashUpdate(data, 0, data.length);
+            fast.hashFinal(hash2, 0, hash2.length);
+            assertTrue(Arrays.equals(hash1, hash2));
+        }
+    }
+}
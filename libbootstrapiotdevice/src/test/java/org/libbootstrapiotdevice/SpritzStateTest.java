@@ -1,14 +1,24 @@
 package org.libbootstrapiotdevice;
 
 import org.junit.Test;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzEngine;
+import org.libbootstrapiotdevice.network.spritzJ.SpritzKeyCache;
 import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class SpritzStateTest {
+
+    /**
+     * @return Return the implementation under test.
+     */
+    protected SpritzEngine newState() {
+        return new SpritzState();
+    }
     
     final static byte[][][] REF_DATA_STREAM = {
         { "ABC"    .getBytes(), new byte[]{(byte)0x77,(byte)0x9a,(byte)0x8e,(byte)0x01,(byte)0xf9,(byte)0xe9,(byte)0xcb,(byte)0xc0}},
@@ -25,7 +35,7 @@ public class SpritzStateTest {
     @Test
     public void testStream() {
         for (byte[][] refData : REF_DATA_STREAM) {
-            SpritzState ss = new SpritzState();
+            SpritzEngine ss = newState();
             byte[] key = refData[0];
             ss.streamInit(key, 0, key.length);
             byte[] expected = refData[1];
@@ -42,7 +52,7 @@ public class SpritzStateTest {
     @Test
     public void testHash() {
         for (byte[][] refData : REF_DATA_HASH) {
-            SpritzState ss = new SpritzState();
+            SpritzEngine ss = newState();
             ss.hashInit();
             byte[] buf = refData[0];
             for (int ofs = 0; ofs < buf.length; ofs++) {
@@ -71,7 +81,7 @@ public class SpritzStateTest {
         byte[] plainText = new byte[257];
         for (int i = 1; i < plainText.length; i++)
             plainText[i] = (byte)i;
-        SpritzState ss = new SpritzState();
+        SpritzEngine ss = newState();
         ss.cipherInit(key, 1, 100, iv, 1, 50);
         byte[] cipherText = new byte[1 + plainText.length + 1];
         ss.cipherEncrypt(plainText, 1, 256, cipherText, 1);
@@ -80,7 +90,7 @@ public class SpritzStateTest {
         for (int i = 1; i < plainText.length; i++)
             assertEquals(plainText[i], (byte)i);
         key[0] = iv[0] = (byte)0xcc;
-        ss = new SpritzState();
+        ss = newState();
         ss.cipherInit(key, 1, 100, iv, 1, 50);
         byte[] plainText2 = new byte[256];
         ss.cipherDecrypt(cipherText, 1, 256, plainText2, 0);
@@ -99,7 +109,7 @@ public class SpritzStateTest {
             (byte)0x8a,(byte)0x0e,(byte)0x80,(byte)0x43,(byte)0x21,(byte)0xe2,
             (byte)0x4d,(byte)0xb2,(byte)0xae};
         byte[] key = "test123".getBytes(); 
-        SpritzState ss = new SpritzState();
+        SpritzEngine ss = newState();
         ss.cipherInit(key, 0, key.length, ref, 0, IV_LEN);
         byte[] must = "spritzsaber".getBytes();
         assertEquals(IV_LEN + must.length, ref.length);
@@ -119,10 +129,70 @@ public class SpritzStateTest {
         byte nonce[] = "nonce\0".getBytes();
         byte key[] = "secret\0".getBytes();
 
-        SpritzState ss = new SpritzState();
+        SpritzEngine ss = newState();
         ss.cipherInit(key, 0, key.length, nonce, 0, nonce.length);
         ss.cipherEncrypt(msg, 0, msg.length, result, 0);
 
         assertTrue(Arrays.equals(result, expect));
     }
+
+    static byte[] encrypt(SpritzEngine ss, byte[] plain) {
+        byte[] out = new byte[plain.length];
+        ss.cipherEncrypt(plain, 0, plain.length, out, 0);
+        return out;
+    }
+
+    // A restored key snapshot must produce the same ciphertext as a full cipherInit.
+    @Test
+    public void testCipherKeySnapshot() {
+        Random random = new Random(3);
+        byte[] plain = new byte[300];
+        random.nextBytes(plain);
+        // Short keys and keys that are long enough to shuffle during the key setup
+        for (int keyLen : new int[]{1, 7, 32, 64, 100}) {
+            byte[] key = new byte[keyLen];
+            random.nextBytes(key);
+            SpritzEngine keyState = newState();
+            keyState.cipherKeyInit(key, 0, key.length);
+
+            for (int n = 0; n < 5; ++n) {
+                byte[] iv = new byte[8];
+                random.nextBytes(iv);
+                SpritzEngine reference = newState();
+                reference.cipherInit(key, 0, key.length, iv, 0, iv.length);
+                SpritzEngine fromSnapshot = newState();
+                fromSnapshot.cipherInit(keyState, iv, 0, iv.length);
+                assertTrue(Arrays.equals(encrypt(reference, plain), encrypt(fromSnapshot, plain)));
+            }
+        }
+    }
+
+    @Test
+    public void testCipherKeyCache() {
+        byte[] plain = "spritzsaber".getBytes();
+        byte[] key = "secret\0".getBytes();
+        byte[] nonce = "nonce\0".getBytes();
+        SpritzKeyCache cache = new SpritzKeyCache(2);
+        SpritzEngine ss = newState();
+
+        cache.cipherInit(ss, key, key.length, nonce, nonce.length);
+        byte[] first = encrypt(ss, plain);
+        // The second packet starts from the cached state again
+        cache.cipherInit(ss, key, key.length, nonce, nonce.length);
+        assertTrue(Arrays.equals(first, encrypt(ss, plain)));
+
+        // Arrays that are changed in place must not hit the cache
+        Random random = new Random(5);
+        for (int n = 0; n < 20; ++n) {
+            if (random.nextBoolean())
+                key[random.nextInt(key.length)] = (byte) random.nextInt(256);
+            else
+                nonce[random.nextInt(nonce.length)] = (byte) random.nextInt(256);
+            int keyLen = 1 + random.nextInt(key.length);
+            SpritzEngine reference = newState();
+            reference.cipherInit(key, 0, keyLen, nonce, 0, nonce.length);
+            cache.cipherInit(ss, key, keyLen, nonce, nonce.length);
+            assertTrue(Arrays.equals(encrypt(reference, plain), encrypt(ss, plain)));
+        }
+    }
 }
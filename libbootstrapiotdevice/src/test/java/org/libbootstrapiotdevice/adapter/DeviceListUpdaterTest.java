@@ -0,0 +1,171 @@
+package org.libbootstrapiotdevice.adapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapDevice;
+import org.libbootstrapiotdevice.DeviceMode;
+import org.libbootstrapiotdevice.network.DeviceListChanges;
+import org.libbootstrapiotdevice.network.DeviceRegistry;
+import org.libbootstrapiotdevice.network.DeviceState;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the coalescing of device list updates per frame. The frames, the main thread and the
+ * diff executor are queues that the test runs by hand. Applies the dispatched ranges to a
+ * model of the shown list, like a RecyclerView does, and counts the notifications.
+ */
+public class DeviceListUpdaterTest implements DeviceListUpdater.Callback {
+    Queue<Runnable> frames = new LinkedList<>();
+    Queue<Runnable> mainThread = new LinkedList<>();
+    Queue<Runnable> background = new LinkedList<>();
+    DeviceListUpdater updater;
+    DeviceRegistry registry;
+    // The list the view shows, changed by the notifications only
+    List<BootstrapDevice> shown = new ArrayList<>();
+    List<BootstrapDevice> dispatched;
+    int notifications;
+    int changedItems;
+
+    private static Executor queue(final Queue<Runnable> queue) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                queue.add(runnable);
+            }
+        };
+    }
+
+    private static void run(Queue<Runnable> queue) {
+        while (!queue.isEmpty())
+            queue.poll().run();
+    }
+
+    private static BootstrapDevice device(int i) throws Exception {
+        return new BootstrapDevice(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+    }
+
+    @Override
+    public void dispatch(List<BootstrapDevice> devices, DeviceListChanges changes) {
+        dispatched = devices;
+        for (DeviceListChanges.Range range : changes.getRanges()) {
+            ++notifications;
+            for (int i = 0; i < range.count; ++i) {
+                switch (range.type) {
+                    case DeviceListChanges.INSERTED:
+                        shown.add(range.start + i, devices.get(range.start + i));
+                        break;
+                    case DeviceListChanges.CHANGED:
+                        shown.set(range.start + i, devices.get(range.start + i));
+                        ++changedItems;
+                        break;
+                    case DeviceListChanges.REMOVED:
+                        shown.remove(range.start);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulate one frame: The frame callback, the diff and the dispatch on the main thread.
+     */
+    private void frame() {
+        run(mainThread);
+        run(frames);
+        run(background);
+        run(mainThread);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        updater = new DeviceListUpdater(new DeviceListUpdater.FrameScheduler() {
+            @Override
+            public void postFrameCallback(Runnable runnable) {
+                frames.add(runnable);
+            }
+        }, queue(mainThread), queue(background), this);
+        registry = new DeviceRegistry();
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        // Detect burst: 200 devices answer, then every device is updated 4 times,
+        // 50 updates per frame
+        int updates = 0;
+        for (int i = 0; i < 200; ++i) {
+            registry.add(device(i));
+            updater.submit(registry.snapshot());
+            if (++updates % 50 == 0)
+                frame();
+        }
+        DeviceMode[] modes = {DeviceMode.Unbound, DeviceMode.Binding, DeviceMode.Bound, DeviceMode.BootstrappingDone};
+        for (DeviceMode mode : modes) {
+            for (int i = 0; i < 200; ++i) {
+                registry.get(i).updateState("uid" + i, mode, DeviceState.STATE_OK, null, new byte[0], new byte[0], 0, 0);
+                updater.submit(registry.snapshot());
+                if (++updates % 50 == 0)
+                    frame();
+            }
+        }
+        frame();
+
+        assertEquals(1000, updates);
+        assertEquals(registry.snapshot(), shown);
+        assertEquals(800, changedItems);
+        // One range per frame
+        assertEquals(20, notifications);
+    }
+
+    @Test
+    public void testRemoveWhileComputing() throws Exception {
+        for (int i = 0; i < 10; ++i)
+            registry.add(device(i));
+        updater.submit(registry.snapshot());
+        frame();
+        assertEquals(10, shown.size());
+
+        // The diff is computed while more devices are removed
+        registry.remove(0);
+        updater.submit(registry.snapshot());
+        run(mainThread);
+        run(frames);
+        registry.remove(8);
+        registry.remove(3);
+        updater.submit(registry.snapshot());
+        run(mainThread);
+        run(frames);
+        // The frame is skipped while computing, the next list waits
+        assertEquals(1, background.size());
+        run(background);
+        run(mainThread);
+        assertEquals(9, shown.size());
+        run(frames);
+        run(background);
+        run(mainThread);
+        assertEquals(registry.snapshot(), shown);
+        assertTrue(dispatched == registry.snapshot());
+
+        // Nothing changed, nothing to notify
+        int before = notifications;
+        updater.submit(registry.snapshot());
+        frame();
+        assertEquals(before, notifications);
+
+        // A new instance of an unchanged device: Nothing to notify, but the new list is shown
+        BootstrapDevice replaced = device(1);
+        registry.set(0, replaced);
+        updater.submit(registry.snapshot());
+        frame();
+        assertEquals(before, notifications);
+        assertTrue(dispatched.get(0) == replaced);
+    }
+}
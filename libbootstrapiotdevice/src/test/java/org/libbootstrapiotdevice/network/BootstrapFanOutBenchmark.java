@@ -0,0 +1,152 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapData;
+import org.libbootstrapiotdevice.BootstrapDevice;
+import org.libbootstrapiotdevice.DeviceMode;
+
+import java.net.InetAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the wall time to send the bootstrap data to 10, 100 and 1000 bound devices.
+ * Compares encrypting on the protocol thread with encrypting on an executor: For the
+ * executor the time the protocol thread is blocked and the time until all packets reached
+ * the network are logged.
+ * <p/>
+ * Only {@see #testFanOut()} is part of the test run, the benchmark is run manually.
+ */
+public class BootstrapFanOutBenchmark {
+    private final static Logger LOGGER = Logger.getLogger(BootstrapFanOutBenchmark.class.getName());
+    private final static byte[] key = "bound".getBytes();
+
+    /**
+     * Counts the packets and releases them like the real networks do.
+     */
+    private static class CountingNetwork implements IUDPNetwork {
+        private int sent = 0;
+
+        @Override
+        public synchronized boolean send(int sendPort, InetAddress address, byte[] data) {
+            PacketBufferPool.instance().release(data);
+            ++sent;
+            notifyAll();
+            return true;
+        }
+
+        @Override
+        public boolean isValid() {
+            return true;
+        }
+
+        synchronized boolean await(int packets, long timeoutMS) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeoutMS;
+            while (sent < packets) {
+                long wait = end - System.currentTimeMillis();
+                if (wait <= 0)
+                    return false;
+                wait(wait);
+            }
+            return true;
+        }
+
+        synchronized void reset() {
+            sent = 0;
+        }
+    }
+
+    private static BootstrapDevice[] devices(int count) throws Exception {
+        BootstrapDevice[] devices = new BootstrapDevice[count];
+        for (int i = 0; i < count; ++i) {
+            devices[i] = new BootstrapDevice(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+            // Every device has its own nonce, the key setup is not cached
+            byte[] nonce = {'n', 'o', 'n', 'c', 'e', 0, (byte) (i >> 8), (byte) i};
+            devices[i].updateState(String.format("U%05d", i), DeviceMode.Bound, DeviceState.STATE_OK, null,
+                    nonce, key, key.length, 0);
+        }
+        return devices;
+    }
+
+    private static long sendAll(BootstrapCore core, BootstrapDevice[] devices, BootstrapData.Payload payload) {
+        long start = System.nanoTime();
+        for (BootstrapDevice device : devices)
+            assertTrue(core.bootstrapDevice(device, payload));
+        return System.nanoTime() - start;
+    }
+
+    private static BootstrapData.Payload payload() {
+        BootstrapData data = new BootstrapData();
+        data.setWifiData("test_wifi_ssid", "test_wifi_pwd");
+        data.addAdditionalData("openhab_server", "http://192.168.1.2:8080");
+        return data.getPayload();
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        BootstrapData.Payload payload = payload();
+        CountingNetwork network = new CountingNetwork();
+        BootstrapCore core = new BootstrapCore(new VirtualScheduler(), key, "app_secret\0".getBytes(), "wifi");
+        core.setNetwork(network);
+        BootstrapDevice[] devices = devices(100);
+
+        // Encrypted and sent on the calling thread
+        sendAll(core, devices, payload);
+        assertEquals(100, network.sent);
+
+        // Every packet reaches the network, the executor may send them in any order
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        core.setEncryptExecutor(pool);
+        network.reset();
+        sendAll(core, devices, payload);
+        assertTrue(network.await(100, 10000));
+        pool.shutdown();
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkFanOut() throws Exception {
+        BootstrapData.Payload payload = payload();
+
+        CountingNetwork network = new CountingNetwork();
+        BootstrapCore core = new BootstrapCore(new VirtualScheduler(), key, "app_secret\0".getBytes(), "wifi");
+        core.setNetwork(network);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+        // Warm up the JIT
+        BootstrapDevice[] warmup = devices(1000);
+        for (int i = 0; i < 3; ++i) {
+            core.setEncryptExecutor(null);
+            sendAll(core, warmup, payload);
+            core.setEncryptExecutor(pool);
+            sendAll(core, warmup, payload);
+            assertTrue(network.await(2000, 10000));
+            network.reset();
+        }
+
+        for (int count = 10; count <= 1000; count *= 10) {
+            BootstrapDevice[] devices = devices(count);
+
+            core.setEncryptExecutor(null);
+            network.reset();
+            long inline = sendAll(core, devices, payload);
+            assertTrue(network.await(count, 1000));
+
+            core.setEncryptExecutor(pool);
+            network.reset();
+            long start = System.nanoTime();
+            long blocked = sendAll(core, devices, payload);
+            assertTrue(network.await(count, 10000));
+            long total = System.nanoTime() - start;
+
+            LOGGER.info(String.format("%4d devices: protocol thread %.2f ms | executor: protocol thread %.2f ms, all send %.2f ms",
+                    count, inline / 1e6, blocked / 1e6, total / 1e6));
+        }
+        pool.shutdown();
+    }
+}
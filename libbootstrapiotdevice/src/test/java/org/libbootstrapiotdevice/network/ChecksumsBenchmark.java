@@ -0,0 +1,63 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the bit by bit CRC16 of the firmware with the table driven implementation
+ * of {@see Checksums} for typical packet sizes. Logs MB/s for both.
+ * <p/>
+ * Not part of the test run, correctness is tested by {@see ChecksumsTest}.
+ */
+public class ChecksumsBenchmark {
+    private final static Logger LOGGER = Logger.getLogger(ChecksumsBenchmark.class.getName());
+    private static final int BYTES_PER_RUN = 4 * 1024 * 1024;
+    private static int sink;
+
+    private static double referenceMBs(byte[] data, int length) {
+        int rounds = BYTES_PER_RUN / length;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i)
+            sink += ChecksumsTest.referenceChecksumCRC16(data, 0, length);
+        return mbPerSecond(rounds * length, System.nanoTime() - start);
+    }
+
+    private static double tableMBs(byte[] data, int length) {
+        int rounds = BYTES_PER_RUN / length;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i)
+            sink += Checksums.GenerateChecksumCRC16(data, 0, length);
+        return mbPerSecond(rounds * length, System.nanoTime() - start);
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (Math.max(nanos, 1) / 1e9);
+    }
+
+    @Test
+    @Ignore("Benchmark, run manually")
+    public void benchmarkChecksumCRC16() throws Exception {
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+
+        // Warm up the JIT
+        for (int i = 0; i < 3; ++i) {
+            referenceMBs(data, 64);
+            tableMBs(data, 64);
+        }
+
+        for (int length = 64; length <= 4096; length *= 4) {
+            assertEquals(ChecksumsTest.referenceChecksumCRC16(data, 0, length),
+                    Checksums.GenerateChecksumCRC16(data, 0, length));
+            double reference = referenceMBs(data, length);
+            double table = tableMBs(data, length);
+            LOGGER.info(String.format("CRC16 %4d bytes: bitwise %8.1f MB/s, slicing-by-8 %8.1f MB/s (%.1fx)",
+                    length, reference, table, table / reference));
+        }
+    }
+}
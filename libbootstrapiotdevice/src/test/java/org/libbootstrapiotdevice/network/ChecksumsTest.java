@@ -2,6 +2,8 @@ package org.libbootstrapiotdevice.network;
 
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -29,6 +31,55 @@ public class ChecksumsTest {
         assertEquals(shouldBe2[1], crcBytes2[1]);
     }
 
+    /**
+     * The bit by bit implementation of the firmware. Used as reference.
+     */
+    static int referenceChecksumCRC16(byte bytes[], int offset, int length) {
+        int crc = 0xFFFF;          // initial value
+        int polynomial = 0x1021;   // 0001 0000 0010 0001  (0, 5, 12)
+        int crc_byte;
+
+        for (int j = offset, end = offset + length; j < end; ++j) {
+            crc_byte = bytes[j];
+
+            for (int i = 0; i < 8; i++) {
+                boolean bit = ((crc_byte >> (7 - i) & 1) == 1);
+                boolean c15 = ((crc >> 15 & 1) == 1);
+                crc <<= 1;
+                if (c15 ^ bit) crc ^= polynomial;
+            }
+        }
+
+        crc &= 0xffff;
+        return crc;
+    }
+
+    @Test
+    public void testTableMatchesReference() throws Exception {
+        Random random = new Random(42);
+        byte data[] = new byte[4096 + 16];
+        random.nextBytes(data);
+        for (int i = 0; i < 2000; ++i) {
+            int offset = random.nextInt(16);
+            int length = random.nextInt(i < 1000 ? 32 : 4096);
+            assertEquals(referenceChecksumCRC16(data, offset, length),
+                    Checksums.GenerateChecksumCRC16(data, offset, length));
+        }
+    }
+
+    @Test
+    public void testIncrementalChecksumCRC16() throws Exception {
+        Random random = new Random(7);
+        byte data[] = new byte[1000];
+        random.nextBytes(data);
+        int expected = Checksums.GenerateChecksumCRC16(data, 0);
+        for (int split = 0; split <= data.length; split += 37) {
+            int crc = Checksums.UpdateChecksumCRC16(Checksums.CRC16_INIT, data, 0, split);
+            crc = Checksums.UpdateChecksumCRC16(crc, data, split, data.length - split);
+            assertEquals(expected, crc);
+        }
+    }
+
     public void convertFromIntToBytes(int input[]) {
         System.out.printf("byte input[] = {");
         for (int i = 0; i < input.length; ++i)
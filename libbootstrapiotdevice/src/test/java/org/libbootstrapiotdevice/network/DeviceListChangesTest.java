@@ -0,0 +1,46 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the merging of single device list changes into ranges.
+ */
+public class DeviceListChangesTest {
+    @Test
+    public void testMerge() throws Exception {
+        DeviceListChanges changes = new DeviceListChanges();
+        assertTrue(changes.isEmpty());
+
+        // Devices appended one after another, updated while they are new
+        for (int i = 5; i < 10; ++i)
+            changes.inserted(i);
+        changes.changed(7);
+        // Updates of neighbours
+        changes.changed(2);
+        changes.changed(3);
+        changes.changed(1);
+        changes.changed(2);
+        // Removal from the end to the beginning, like removeDevicesNotSelected()
+        changes.removed(4);
+        changes.removed(3);
+        // Not adjacent
+        changes.removed(0);
+
+        assertEquals(13, changes.getChangeCount());
+        assertEquals("[inserted 5+5, changed 1+3, removed 3+2, removed 0+1]", changes.getRanges().toString());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        DeviceListChanges changes = new DeviceListChanges();
+        changes.inserted(0);
+        changes.removedAll();
+        changes.inserted(0);
+        assertTrue(changes.isReset());
+        assertTrue(changes.getRanges().isEmpty());
+        assertEquals(3, changes.getChangeCount());
+    }
+}
@@ -0,0 +1,114 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the address and uid index of the device list.
+ */
+public class DeviceRegistryTest {
+    private static InetAddress ipv4(int i) throws Exception {
+        return InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+    }
+
+    private static BootstrapDevice device(InetAddress address, String uid) {
+        BootstrapDevice device = new BootstrapDevice(address);
+        device.uid = uid;
+        return device;
+    }
+
+    @Test
+    public void testLookupByAddress() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        for (int i = 0; i < 300; ++i)
+            registry.add(device(ipv4(i), ""));
+
+        assertEquals(300, registry.size());
+        for (int i = 0; i < 300; ++i) {
+            // A different InetAddress instance with the same address must be found
+            assertEquals(i, registry.indexOfAddress(ipv4(i)));
+        }
+        assertEquals(-1, registry.indexOfAddress(ipv4(300)));
+        assertEquals(-1, registry.indexOfAddress(null));
+
+        InetAddress ipv6 = InetAddress.getByName("fe80::1");
+        registry.add(device(ipv6, ""));
+        assertEquals(300, registry.indexOfAddress(InetAddress.getByName("fe80::1")));
+    }
+
+    @Test
+    public void testStableIndicesAfterRemoval() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        for (int i = 0; i < 10; ++i)
+            registry.add(device(ipv4(i), "uid" + i));
+
+        registry.remove(3);
+        registry.remove(0);
+
+        assertEquals(8, registry.size());
+        assertEquals(-1, registry.indexOfAddress(ipv4(0)));
+        assertEquals(-1, registry.indexOfAddress(ipv4(3)));
+        for (int i = 0; i < registry.size(); ++i) {
+            BootstrapDevice device = registry.get(i);
+            assertEquals(i, registry.indexOfAddress(device.address));
+            assertEquals(i, registry.indexOfUid(device.uid));
+        }
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(-1, registry.indexOfAddress(ipv4(5)));
+        assertEquals(-1, registry.indexOfUid("uid5"));
+    }
+
+    @Test
+    public void testLookupByUid() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        BootstrapDevice device = device(ipv4(1), "");
+        registry.add(device);
+        assertEquals(-1, registry.indexOfUid("ABCDEF"));
+
+        // The uid becomes known after the first encrypted response
+        device.uid = "ABCDEF";
+        registry.updateUid(0);
+        assertEquals(0, registry.indexOfUid("ABCDEF"));
+
+        // The same device with a new IP address replaces the old entry
+        BootstrapDevice moved = device(ipv4(2), "ABCDEF");
+        registry.set(registry.indexOfUid(moved.uid), moved);
+        assertSame(moved, registry.get(0));
+        assertEquals(0, registry.indexOfAddress(ipv4(2)));
+        assertEquals(-1, registry.indexOfAddress(ipv4(1)));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        DeviceRegistry registry = new DeviceRegistry();
+        DeviceRegistry.Snapshot empty = registry.snapshot();
+        assertEquals(0, empty.size());
+
+        registry.add(device(ipv4(1), "uid1"));
+        registry.add(device(ipv4(2), "uid2"));
+        DeviceRegistry.Snapshot snapshot = registry.snapshot();
+        assertEquals(2, snapshot.size());
+        assertTrue(snapshot.version > empty.version);
+        // Shared until the next modification
+        assertSame(snapshot, registry.snapshot());
+
+        registry.remove(0);
+        assertEquals(2, snapshot.size());
+        assertEquals(1, registry.snapshot().size());
+        assertTrue(registry.snapshot().version > snapshot.version);
+        try {
+            snapshot.add(device(ipv4(3), "uid3"));
+            fail("A snapshot is immutable");
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.libbootstrapiotdevice.network;
+
+import org.libbootstrapiotdevice.network.spritzJ.SpritzState;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Creates encrypted device responses like the firmware does. Used to feed
+ * {@see BootstrapCore#parsePacket(byte[], int, java.net.InetSocketAddress)} in tests.
+ */
+class DeviceResponseBuilder {
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream wifiList = new ByteArrayOutputStream();
+    private int wifiListEntries = 0;
+    private byte[] deviceNonce = {'d', 'e', 'v', 'n', 'o', 'n', 'c', 'e'};
+    private String uid = "ABCDEF";
+    private String name = "testname";
+    private DeviceState state = DeviceState.STATE_OK;
+
+    DeviceResponseBuilder uid(String uid) {
+        this.uid = uid;
+        return this;
+    }
+
+    DeviceResponseBuilder name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    DeviceResponseBuilder state(DeviceState state) {
+        this.state = state;
+        return this;
+    }
+
+    DeviceResponseBuilder deviceNonce(byte[] deviceNonce) {
+        this.deviceNonce = deviceNonce;
+        return this;
+    }
+
+    DeviceResponseBuilder addNetwork(String ssid, int strength) {
+        byte[] ssid_bytes = ssid.getBytes();
+        wifiList.write(strength);
+        wifiList.write(2); // WPA
+        wifiList.write(ssid_bytes, 0, ssid_bytes.length);
+        wifiList.write(0);
+        ++wifiListEntries;
+        return this;
+    }
+
+    /**
+     * @return Return the plain payload, without header.
+     */
+    byte[] buildPlain() {
+        payload.reset();
+        payload.write(deviceNonce, 0, BootstrapCore.BST_NONCE_SIZE);
+        payload.write(uid.getBytes(), 0, BootstrapCore.BST_UID_SIZE);
+        payload.write(0); // external_confirmation_state
+        payload.write(wifiList.size());
+        payload.write(wifiListEntries);
+        byte[] list = wifiList.toByteArray();
+        payload.write(list, 0, list.length);
+        byte[] name_bytes = name.getBytes();
+        payload.write(name_bytes, 0, name_bytes.length);
+        payload.write(0);
+        return payload.toByteArray();
+    }
+
+    /**
+     * @return Return the complete packet with header, checksum, state and the encrypted payload.
+     */
+    byte[] build(byte[] key, byte[] appNonce) {
+        byte[] plain = buildPlain();
+        int crc = Checksums.GenerateChecksumCRC16(plain, 0);
+        byte[] crc_bytes = Checksums.CheckSumAsBytes(crc);
+
+        byte[] packet = new byte[BootstrapCore.protocol_header_len + plain.length];
+        System.arraycopy(BootstrapCore.header, 0, packet, 0, BootstrapCore.header.length);
+        System.arraycopy(crc_bytes, 0, packet, BootstrapCore.header.length, BootstrapCore.BST_CHECKSUM_SIZE);
+        packet[BootstrapCore.header.length + BootstrapCore.BST_CHECKSUM_SIZE] = (byte) state.ordinal();
+
+        SpritzState crypto = new SpritzState();
+        crypto.cipherInit(key, 0, key.length, appNonce, 0, appNonce.length);
+        crypto.cipherEncrypt(plain, 0, plain.length, packet, BootstrapCore.protocol_header_len);
+        return packet;
+    }
+}
@@ -0,0 +1,81 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test that the entropy source serves the bytes of its generator in order, across block
+ * boundaries and with a background refill.
+ */
+public class EntropySourceTest {
+    private static byte[] expected(long seed, int blocks) {
+        byte[] bytes = new byte[blocks * EntropySource.BLOCK_SIZE];
+        Random random = new Random(seed);
+        byte[] block = new byte[EntropySource.BLOCK_SIZE];
+        for (int i = 0; i < blocks; ++i) {
+            random.nextBytes(block);
+            System.arraycopy(block, 0, bytes, i * EntropySource.BLOCK_SIZE, EntropySource.BLOCK_SIZE);
+        }
+        return bytes;
+    }
+
+    private static byte[] serve(EntropySource entropy, int length) {
+        byte[] bytes = new byte[length];
+        // Odd sizes like nonces and padding, to cross the block boundaries in the middle of a request
+        for (int offset = 0; offset < length; ) {
+            int n = Math.min(length - offset, 13 + offset % 200);
+            entropy.nextBytes(bytes, offset, n);
+            offset += n;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        byte[] expected = expected(7, 3);
+        byte[] bytes = serve(new EntropySource(new Random(7), null), expected.length);
+        assertTrue(Arrays.equals(expected, bytes));
+    }
+
+    @Test
+    public void testBackgroundRefill() throws Exception {
+        final int[] refills = {0};
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        Executor counting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                ++refills[0];
+                pool.execute(command);
+            }
+        };
+
+        EntropySource entropy = new EntropySource(new Random(7), counting);
+        byte[] first = new byte[EntropySource.BLOCK_SIZE];
+        entropy.nextBytes(first);
+        // The first block is generated synchronously, the second one in the background
+        assertTrue(Arrays.equals(Arrays.copyOf(expected(7, 1), EntropySource.BLOCK_SIZE), first));
+        assertEquals(1, refills[0]);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+        // The next block is the one generated in the background. The executor is shut down,
+        // the source keeps working synchronously.
+        byte[] second = new byte[EntropySource.BLOCK_SIZE];
+        entropy.nextBytes(second);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected(7, 2), EntropySource.BLOCK_SIZE, 2 * EntropySource.BLOCK_SIZE),
+                second));
+        assertEquals(2, refills[0]);
+        entropy.nextBytes(second);
+        assertFalse(Arrays.equals(first, second));
+    }
+}
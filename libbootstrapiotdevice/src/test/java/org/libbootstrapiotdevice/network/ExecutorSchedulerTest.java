@@ -0,0 +1,77 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the plain java scheduler: Order of execution and cancellation.
+ */
+public class ExecutorSchedulerTest {
+    @Test
+    public void testOrderAndCancel() throws Exception {
+        ExecutorScheduler scheduler = new ExecutorScheduler();
+        final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<LogRecord> logged = Collections.synchronizedList(new ArrayList<LogRecord>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ExecutorScheduler.LOGGER.addHandler(handler);
+        ExecutorScheduler.LOGGER.setUseParentHandlers(false);
+
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executed.add(3);
+                done.countDown();
+            }
+        }, 100);
+        ProtocolScheduler.Task cancelled = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                executed.add(2);
+            }
+        }, 50);
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                executed.add(1);
+                // A failing task does not stop the scheduler
+                throw new RuntimeException("test");
+            }
+        });
+        cancelled.cancel();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        ExecutorScheduler.LOGGER.removeHandler(handler);
+        ExecutorScheduler.LOGGER.setUseParentHandlers(true);
+        // The task after the failed one ran, the failure has been reported
+        assertEquals(2, executed.size());
+        assertEquals(1, (int) executed.get(0));
+        assertEquals(3, (int) executed.get(1));
+        assertEquals(1, logged.size());
+        assertEquals("test", logged.get(0).getThrown().getMessage());
+    }
+}
@@ -0,0 +1,96 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the expiry of silent devices by the timer wheel with a virtual clock.
+ */
+public class LivenessTrackerTest implements LivenessTracker.Callback {
+    VirtualScheduler scheduler;
+    LivenessTracker tracker;
+    List<List<BootstrapDevice>> batches;
+
+    private static BootstrapDevice device(int i) throws Exception {
+        return new BootstrapDevice(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}));
+    }
+
+    @Override
+    public void expired(List<BootstrapDevice> devices) {
+        batches.add(devices);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new VirtualScheduler();
+        // Ticks of 100ms
+        tracker = new LivenessTracker(scheduler, 1600, this);
+        batches = new ArrayList<>();
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        BootstrapDevice device1 = device(1);
+        BootstrapDevice device2 = device(2);
+        tracker.heartbeat(device1);
+        scheduler.advance(50);
+        tracker.heartbeat(device2);
+
+        // Not before the timeout, at most one tick later
+        scheduler.advance(1549);
+        assertEquals(0, batches.size());
+        scheduler.advance(100);
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertSame(device1, batches.get(0).get(0));
+        assertEquals(1, tracker.size());
+
+        // A heartbeat moves the deadline
+        tracker.heartbeat(device2);
+        scheduler.advance(1000);
+        assertEquals(1, batches.size());
+        scheduler.advance(700);
+        assertEquals(2, batches.size());
+        assertSame(device2, batches.get(1).get(0));
+
+        // Nothing tracked, the wheel stops
+        assertEquals(0, tracker.size());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void testBatchAndRemove() throws Exception {
+        List<BootstrapDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            devices.add(device(i));
+            tracker.heartbeat(devices.get(i));
+        }
+        tracker.remove(devices.get(0));
+        // Heartbeats of half of the devices keep them alive
+        for (int t = 0; t < 10; ++t) {
+            scheduler.advance(500);
+            for (int i = 0; i < 1000; i += 2)
+                tracker.heartbeat(devices.get(i));
+        }
+        // All odd devices expired in the same tick
+        assertEquals(1, batches.size());
+        assertEquals(500, batches.get(0).size());
+        for (BootstrapDevice device : batches.get(0))
+            assertTrue((device.address.getAddress()[3] & 1) == 1);
+        // The removed device was heard of again
+        assertEquals(500, tracker.size());
+
+        tracker.clear();
+        assertEquals(0, tracker.size());
+        assertEquals(0, scheduler.pending());
+    }
+}
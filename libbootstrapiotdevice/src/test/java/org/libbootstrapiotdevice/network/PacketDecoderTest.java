@@ -0,0 +1,220 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapDevice;
+import org.libbootstrapiotdevice.DeviceMode;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the offset based packet decoder and that the receive path does not produce
+ * garbage for known devices.
+ */
+public class PacketDecoderTest {
+    private final static byte[] app_nonce = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
+    private final static byte[] unbound_key = "app_secret\0".getBytes();
+    private BootstrapCore core;
+    private byte[] packet;
+
+    @Before
+    public void setUp() throws Exception {
+        core = new BootstrapCore(new VirtualScheduler(),
+                "bound".getBytes(), unbound_key, "wifi2");
+        core.setAppNonce(app_nonce);
+        packet = new DeviceResponseBuilder()
+                .addNetwork("wifi1", 100)
+                .addNetwork("wifi2", 50)
+                .build(unbound_key, app_nonce);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        PacketDecoder decoder = new PacketDecoder();
+        int crc = decoder.decrypt(unbound_key, unbound_key.length, app_nonce, packet,
+                BootstrapCore.protocol_header_len, packet.length - BootstrapCore.protocol_header_len);
+        assertEquals(BootstrapCore.extractCRCValue(packet), crc);
+
+        assertNull(decoder.parse("wifi2".getBytes()));
+        assertEquals(2, decoder.getWifiListEntries());
+        assertEquals(1, decoder.getCurrentNetworkEntry());
+        assertEquals("testname".length(), decoder.getNameLength());
+        assertEquals(BootstrapCore.BST_NONCE_SIZE, decoder.getUidOffset());
+
+        assertNull(decoder.parse("wifi3".getBytes()));
+        assertEquals(-1, decoder.getCurrentNetworkEntry());
+    }
+
+    @Test
+    public void testDecodeIntoDevice() throws Exception {
+        BootstrapDevice device = new BootstrapDevice(InetAddress.getByName("192.168.1.2"));
+        assertNull(core.decodePacket(new PacketDecoder(), device, DeviceState.STATE_OK,
+                packet, packet.length));
+
+        assertEquals("ABCDEF", device.uid);
+        assertEquals("testname", device.device_name);
+        assertEquals(DeviceMode.Binding, device.getMode());
+        assertEquals(2, device.getReachableNetworks().size());
+        assertEquals("wifi1", device.getReachableNetworks().get(0).ssid);
+        assertNotNull(device.getWirelessNetwork());
+        assertEquals("wifi2", device.getWirelessNetwork().ssid);
+        assertEquals(50, device.getWirelessNetwork().getStrength());
+
+        // A corrupted packet is not accepted
+        packet[packet.length - 1] ^= 1;
+        assertNotNull(core.decodePacket(new PacketDecoder(), device, DeviceState.STATE_OK,
+                packet, packet.length));
+    }
+
+    /**
+     * A device that switches from the unbound to the bound key must not cause a second
+     * complete decryption per response, only on the actual key change.
+     */
+    @Test
+    public void testKeyHint() throws Exception {
+        byte[] bound_key = "bound".getBytes();
+        byte[] bound_packet = new DeviceResponseBuilder()
+                .addNetwork("wifi2", 50)
+                .build(bound_key, app_nonce);
+        BootstrapDevice device = new BootstrapDevice(InetAddress.getByName("192.168.1.2"));
+        PacketDecoder decoder = new PacketDecoder();
+
+        assertNull(core.decodePacket(decoder, device, DeviceState.STATE_OK, packet, packet.length));
+        assertEquals(DeviceMode.Binding, device.getMode());
+        assertTrue(device.isLastKeyUnbound());
+        // The first response has no hint yet and is not counted
+        assertEquals(0, core.getKeyHintHits() + core.getKeyHintMisses());
+        long misses = core.getKeyHintMisses();
+
+        // Still unbound responses while binding: The bound key would be tried first without the hint
+        for (int i = 0; i < 5; ++i)
+            assertNull(core.decodePacket(decoder, device, DeviceState.STATE_OK, packet, packet.length));
+        assertEquals(misses, core.getKeyHintMisses());
+
+        // The key change is detected by the trial decryption of the nonce and uid
+        for (int i = 0; i < 5; ++i)
+            assertNull(core.decodePacket(decoder, device, DeviceState.STATE_OK, bound_packet, bound_packet.length));
+        assertEquals(misses, core.getKeyHintMisses());
+        assertEquals(DeviceMode.Bound, device.getMode());
+        assertFalse(device.isLastKeyUnbound());
+
+        // A rebooted device has a new nonce, the prefix does not match and both keys are tried
+        byte[] rebooted = new DeviceResponseBuilder()
+                .deviceNonce("newnonce".getBytes())
+                .build(bound_key, app_nonce);
+        assertNull(core.decodePacket(decoder, device, DeviceState.STATE_OK, rebooted, rebooted.length));
+        assertEquals(misses + 1, core.getKeyHintMisses());
+        assertEquals(DeviceMode.Bound, device.getMode());
+        // Every response with a hint is counted once
+        assertEquals(11, core.getKeyHintHits() + core.getKeyHintMisses());
+    }
+
+    /**
+     * Receiving the same response of a known device again and again must not allocate.
+     */
+    @Test
+    public void testNoAllocationsForKnownDevice() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        BootstrapDevice device = new BootstrapDevice(InetAddress.getByName("192.168.1.2"));
+        PacketDecoder decoder = new PacketDecoder();
+        // The receive buffer is larger than the packet
+        byte[] buffer = new byte[1024];
+        System.arraycopy(packet, 0, buffer, 0, packet.length);
+
+        // Warm up, the first packet copies the device fields
+        for (int i = 0; i < 2000; ++i)
+            assertNull(core.decodePacket(decoder, device, DeviceState.STATE_OK, buffer, packet.length));
+        device.getReachableNetworks();
+
+        final int packets = 10000;
+        long before = bean.getThreadAllocatedBytes(threadId);
+        boolean accepted = true;
+        for (int i = 0; i < packets; ++i)
+            accepted &= core.decodePacket(decoder, device, DeviceState.STATE_OK, buffer, packet.length) == null;
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(accepted);
+        // Allow a few bytes for the measurement itself, but nothing per packet
+        assertTrue("Allocated " + allocated + " bytes for " + packets + " packets", allocated < 1024);
+    }
+
+    /**
+     * The whole receive path of a known device, from parsePacket() to the protocol step that
+     * applies the response, must not allocate either.
+     */
+    @Test
+    public void testNoAllocationsParsePacket() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        // Runs the posted tasks on the test thread, without allocating for them
+        final Runnable[] posted = {null};
+        ProtocolScheduler scheduler = new ProtocolScheduler() {
+            @Override
+            public Task post(Runnable runnable) {
+                posted[0] = runnable;
+                return null;
+            }
+
+            @Override
+            public Task schedule(Runnable runnable, long delayMS) {
+                throw new IllegalStateException("Nothing is scheduled while receiving");
+            }
+
+            @Override
+            public long uptimeMillis() {
+                return 0;
+            }
+        };
+        byte[] bound_key = "bound".getBytes();
+        BootstrapCore core = new BootstrapCore(scheduler, bound_key, unbound_key, "wifi2");
+        core.setAppNonce(app_nonce);
+        byte[] bound_packet = new DeviceResponseBuilder()
+                .addNetwork("wifi2", 50)
+                .build(bound_key, app_nonce);
+        byte[] buffer = new byte[1024];
+        System.arraycopy(bound_packet, 0, buffer, 0, bound_packet.length);
+        InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName("192.168.1.2"), 8711);
+
+        // Warm up, the first packet adds the device
+        for (int i = 0; i < 2000; ++i) {
+            core.parsePacket(buffer, bound_packet.length, peer);
+            runPosted(posted);
+        }
+        assertEquals(1, core.getDevices().size());
+        assertEquals(DeviceMode.Bound, core.getDevices().get(0).getMode());
+
+        final int packets = 10000;
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < packets; ++i) {
+            core.parsePacket(buffer, bound_packet.length, peer);
+            runPosted(posted);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(1, core.getDevices().size());
+        assertTrue("Allocated " + allocated + " bytes for " + packets + " packets", allocated < 1024);
+    }
+
+    private static void runPosted(Runnable[] posted) {
+        Runnable runnable = posted[0];
+        assertNotNull(runnable);
+        posted[0] = null;
+        runnable.run();
+    }
+}
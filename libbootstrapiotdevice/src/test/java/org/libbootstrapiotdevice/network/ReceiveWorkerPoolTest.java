@@ -0,0 +1,126 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+import org.libbootstrapiotdevice.BootstrapDevice;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test for the receive stage: Thousands of encrypted device responses are injected
+ * into BootstrapCore through the worker pool.
+ */
+public class ReceiveWorkerPoolTest {
+    private final static byte[] app_nonce = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
+    private final static byte[] unbound_key = "app_secret\0".getBytes();
+
+    @Test
+    public void testManyResponses() throws Exception {
+        final int deviceCount = 200;
+        final int responsesPerDevice = 20;
+
+        VirtualScheduler scheduler = new VirtualScheduler();
+        final BootstrapCore core = new BootstrapCore(scheduler, "bound".getBytes(), unbound_key, "wifi2");
+        core.setAppNonce(app_nonce);
+        // Unbound devices are bound, the BIND messages are not of interest here
+        core.setNetwork(new IUDPNetwork() {
+            @Override
+            public boolean send(int sendPort, InetAddress address, byte[] data) {
+                return true;
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+        });
+        // Results of each device arrive in order
+        final Map<String, Integer> lastSequence = new HashMap<>();
+        final int[] updates = {0};
+        core.addChangeListener(new BootstrapDeviceUpdateListener() {
+            @Override
+            public void deviceUpdated(int index, boolean added) {
+                BootstrapDevice device = core.getDevices().get(index);
+                int sequence = Integer.parseInt(device.device_name);
+                Integer last = lastSequence.put(device.uid, sequence);
+                assertEquals(last == null ? 0 : last + 1, sequence);
+                ++updates[0];
+            }
+
+            @Override
+            public void deviceRemoved(int index) {
+            }
+
+            @Override
+            public void deviceRemoveAll() {
+            }
+
+            @Override
+            public void deviceChangesFinished() {
+            }
+        });
+
+        // Prepare the responses: The name of each response contains its sequence number.
+        byte[][][] packets = new byte[deviceCount][responsesPerDevice][];
+        InetSocketAddress[] peers = new InetSocketAddress[deviceCount];
+        for (int d = 0; d < deviceCount; ++d) {
+            peers[d] = new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, (byte) (d >> 8), (byte) d}), 8711);
+            for (int r = 0; r < responsesPerDevice; ++r) {
+                packets[d][r] = new DeviceResponseBuilder()
+                        .uid(String.format("U%05d", d))
+                        .name(Integer.toString(r))
+                        .addNetwork("wifi1", 80)
+                        .addNetwork("wifi2", 40)
+                        .build(unbound_key, app_nonce);
+            }
+        }
+
+        ReceiveWorkerPool pool = new ReceiveWorkerPool(core, 4, deviceCount * responsesPerDevice);
+        // The network reuses its receive buffer for every datagram
+        byte[] buffer = new byte[1024];
+        for (int r = 0; r < responsesPerDevice; ++r) {
+            for (int d = 0; d < deviceCount; ++d) {
+                System.arraycopy(packets[d][r], 0, buffer, 0, packets[d][r].length);
+                pool.parsePacket(buffer, packets[d][r].length, peers[d]);
+            }
+        }
+        assertTrue(pool.awaitIdle(30000));
+        pool.shutdown();
+
+        assertEquals(deviceCount * responsesPerDevice, pool.getReceived());
+        assertEquals(0, pool.getDropped());
+        // All responses are handed over to the protocol thread by one task
+        assertEquals(1, scheduler.runPending());
+        assertEquals(deviceCount * responsesPerDevice, updates[0]);
+        assertEquals(deviceCount, lastSequence.size());
+        assertEquals(deviceCount, core.getDevices().size());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final Object lock = new Object();
+        IUDPNetworkReceive slow = new IUDPNetworkReceive() {
+            @Override
+            public void parsePacket(byte[] message, int length, InetSocketAddress peer) {
+                synchronized (lock) {
+                }
+            }
+        };
+        ReceiveWorkerPool pool = new ReceiveWorkerPool(slow, 1, 10);
+        InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName("10.0.0.1"), 8711);
+        synchronized (lock) {
+            for (int i = 0; i < 100; ++i)
+                pool.parsePacket(new byte[20], 20, peer);
+        }
+        assertTrue(pool.awaitIdle(5000));
+        pool.shutdown();
+        assertEquals(100, pool.getReceived());
+        // One datagram is processed (blocked), ten are queued
+        assertEquals(89, pool.getDropped());
+    }
+}
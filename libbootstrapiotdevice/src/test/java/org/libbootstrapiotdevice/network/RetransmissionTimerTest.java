@@ -0,0 +1,74 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the round trip time estimation, the backoff and the jitter of the retransmission timer.
+ */
+public class RetransmissionTimerTest {
+    @Test
+    public void testEstimation() throws Exception {
+        RetransmissionTimer timer = new RetransmissionTimer(1000);
+        assertEquals(-1, timer.getSmoothedRtt());
+        assertEquals(1000, timer.getTimeout());
+
+        // First sample: SRTT = R, RTTVAR = R / 2, timeout = SRTT + 4 * RTTVAR
+        timer.sample(100);
+        assertEquals(100, timer.getSmoothedRtt());
+        assertEquals(300, timer.getTimeout());
+
+        // Constant samples converge to the sample, the timeout to the minimum
+        for (int i = 0; i < 50; ++i)
+            timer.sample(100);
+        assertEquals(100, timer.getSmoothedRtt());
+        assertEquals(RetransmissionTimer.MIN_TIMEOUT_MS, timer.getTimeout());
+
+        // A slow answer increases the variation more than the smoothed round trip time
+        timer.sample(900);
+        assertEquals(200, timer.getSmoothedRtt());
+        assertEquals(200 + 4 * 200, timer.getTimeout());
+
+        // Timers of new devices start with the estimation
+        RetransmissionTimer other = new RetransmissionTimer(5000, timer);
+        assertEquals(200, other.getSmoothedRtt());
+        assertEquals(timer.getTimeout(), other.getTimeout());
+        assertEquals(5000, new RetransmissionTimer(5000, new RetransmissionTimer(1000)).getTimeout());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        RetransmissionTimer timer = new RetransmissionTimer(1000);
+        timer.backoff();
+        assertEquals(2000, timer.getTimeout());
+        timer.backoff();
+        assertEquals(4000, timer.getTimeout());
+        for (int i = 0; i < 40; ++i)
+            timer.backoff();
+        assertEquals(RetransmissionTimer.MAX_TIMEOUT_MS, timer.getTimeout());
+
+        // A sample ends the backoff
+        timer.sample(500);
+        assertEquals(500 + 4 * 250, timer.getTimeout());
+    }
+
+    @Test
+    public void testJitter() throws Exception {
+        RetransmissionTimer timer = new RetransmissionTimer(1000);
+        Random random = new Random(1);
+        assertEquals(1000, timer.nextDelay(random, 0));
+
+        int min = Integer.MAX_VALUE, max = 0;
+        for (int i = 0; i < 1000; ++i) {
+            int delay = timer.nextDelay(random, 0.25f);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 750 && min < 800);
+        assertTrue(max <= 1250 && max > 1200);
+    }
+}
@@ -0,0 +1,79 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the building blocks of the send thread: Buffer pool, broadcast coalescing and pacing.
+ */
+public class SendPipelineTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testBufferPool() throws Exception {
+        PacketBufferPool pool = new PacketBufferPool();
+        byte[] a = pool.acquire(19);
+        assertEquals(19, a.length);
+        pool.release(a);
+        assertSame(a, pool.acquire(19));
+        // Exact sizes only
+        pool.release(a);
+        assertNotSame(a, pool.acquire(20));
+        assertSame(a, pool.acquire(19));
+    }
+
+    @Test
+    public void testPacketOutputStream() throws Exception {
+        PacketOutputStream stream = new PacketOutputStream(16);
+        stream.write(new byte[]{1, 2, 3}, 0, 3);
+        byte[] data = stream.toPooledByteArray();
+        assertEquals(3, data.length);
+        assertEquals(3, data[2]);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        BroadcastCoalescer coalescer = new BroadcastCoalescer(100);
+        byte[] hello = {'B', 'S', 'T', 1, 2, 3};
+        byte[] other = {'B', 'S', 'T', 1, 2, 4};
+
+        assertFalse(coalescer.isDuplicate(8711, hello, 0));
+        assertTrue(coalescer.isDuplicate(8711, hello.clone(), 10 * MS));
+        assertFalse(coalescer.isDuplicate(8711, other, 20 * MS));
+        // Other port
+        assertFalse(coalescer.isDuplicate(8712, hello, 30 * MS));
+        // Outside of the window
+        assertFalse(coalescer.isDuplicate(8711, hello, 150 * MS));
+        assertEquals(1, coalescer.getCoalesced());
+
+        coalescer.setWindow(0);
+        assertFalse(coalescer.isDuplicate(8711, hello, 160 * MS));
+    }
+
+    @Test
+    public void testPacing() throws Exception {
+        PacketPacer pacer = new PacketPacer();
+        assertEquals(0, pacer.reserve(0));
+
+        // 100 packets per second, bursts of 100ms = 10 packets
+        pacer.setPacketsPerSecond(100);
+        long now = 1000 * MS;
+        long waited = 0;
+        for (int i = 0; i < 10; ++i)
+            waited += pacer.reserve(now);
+        assertEquals(0, waited);
+        assertEquals(0, pacer.reserve(now));
+        assertEquals(10 * MS, pacer.reserve(now));
+        assertEquals(20 * MS, pacer.reserve(now));
+        // After a pause, only a burst is allowed again
+        now += 10000 * MS;
+        for (int i = 0; i < 11; ++i)
+            assertEquals(0, pacer.reserve(now));
+        assertEquals(10 * MS, pacer.reserve(now));
+    }
+}
@@ -0,0 +1,108 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the channel based network against a plain UDP socket on the loopback interface.
+ */
+public class UDPChannelSendReceiveTest {
+    private UDPChannelSendReceive network;
+    private DatagramSocket device;
+    private final LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<InetSocketAddress> peers = new LinkedBlockingQueue<>();
+    private InetAddress loopback;
+
+    @Before
+    public void setUp() throws Exception {
+        loopback = InetAddress.getByName("127.0.0.1");
+        device = new DatagramSocket(0, loopback);
+        device.setSoTimeout(2000);
+        network = new UDPChannelSendReceive();
+        assertTrue(network.start(null, 0, new IUDPNetworkReceive() {
+            @Override
+            public void parsePacket(byte[] message, int length, InetSocketAddress peer) {
+                received.add(Arrays.copyOf(message, length));
+                peers.add(peer);
+            }
+        }));
+        assertTrue(network.isValid());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        network.tearDown();
+        device.close();
+        assertFalse(network.isValid());
+    }
+
+    @Test
+    public void testReceive() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            byte[] data = ("response" + i).getBytes();
+            device.send(new DatagramPacket(data, data.length, loopback, network.getLocalPort()));
+        }
+        for (int i = 0; i < 10; ++i) {
+            byte[] data = received.poll(2, TimeUnit.SECONDS);
+            assertNotNull(data);
+            assertEquals("response" + i, new String(data));
+            assertEquals(device.getLocalPort(), peers.take().getPort());
+        }
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        network.setUnicast(true, 3);
+        byte[] buffer = new byte[UDPChannelSendReceive.MAX_PACKET_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        for (int i = 0; i < 100; ++i)
+            assertTrue(network.send(device.getLocalPort(), loopback, ("request" + i).getBytes()));
+        for (int i = 0; i < 100; ++i) {
+            packet.setLength(buffer.length);
+            device.receive(packet);
+            assertEquals("request" + i, new String(buffer, 0, packet.getLength()));
+        }
+        // Without a network interface broadcasts go to the broadcast address
+        network.setBroadcastAddress(loopback);
+        assertTrue(network.send(device.getLocalPort(), null, "broadcast".getBytes()));
+        packet.setLength(buffer.length);
+        device.receive(packet);
+        assertEquals("broadcast", new String(buffer, 0, packet.getLength()));
+
+        assertFalse(network.send(device.getLocalPort(), loopback, new byte[UDPChannelSendReceive.MAX_PACKET_SIZE + 1]));
+    }
+
+    @Test
+    public void testSendError() throws Exception {
+        network.setUnicast(true, 3);
+        // Reserved, not routed on real networks. Port 0 fails everywhere, routed or not
+        InetAddress unroutable = InetAddress.getByName("240.0.0.1");
+        assertTrue(network.send(0, unroutable, "lost".getBytes()));
+        assertTrue(network.send(9, unroutable, "lost".getBytes()));
+        assertTrue(network.send(device.getLocalPort(), loopback, "after".getBytes()));
+
+        // The event loop still sends and receives
+        byte[] buffer = new byte[UDPChannelSendReceive.MAX_PACKET_SIZE];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        device.receive(packet);
+        assertEquals("after", new String(buffer, 0, packet.getLength()));
+        byte[] data = "response".getBytes();
+        device.send(new DatagramPacket(data, data.length, loopback, network.getLocalPort()));
+        assertNotNull(received.poll(2, TimeUnit.SECONDS));
+        assertTrue(network.isValid());
+    }
+}
@@ -0,0 +1,52 @@
+package org.libbootstrapiotdevice.network;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the unicast/broadcast decision for device addresses.
+ */
+public class UnicastFallbackPolicyTest {
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        UnicastFallbackPolicy policy = new UnicastFallbackPolicy();
+        assertFalse(policy.useUnicast(InetAddress.getByName("192.168.1.2")));
+    }
+
+    @Test
+    public void testFallbackAfterUnansweredPackets() throws Exception {
+        UnicastFallbackPolicy policy = new UnicastFallbackPolicy();
+        policy.setUnicast(true, 2);
+        InetAddress device = InetAddress.getByName("192.168.1.2");
+
+        assertFalse(policy.useUnicast(null));
+        assertFalse(policy.useUnicast(InetAddress.getByName("239.0.0.57")));
+
+        assertTrue(policy.useUnicast(device));
+        assertTrue(policy.useUnicast(device));
+        // Two unanswered packets: Broadcast until the device answers
+        assertFalse(policy.useUnicast(device));
+        assertFalse(policy.useUnicast(device));
+        // Other devices are not affected
+        assertTrue(policy.useUnicast(InetAddress.getByName("192.168.1.3")));
+
+        policy.answered(InetAddress.getByName("192.168.1.2"));
+        assertTrue(policy.useUnicast(device));
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        UnicastFallbackPolicy policy = new UnicastFallbackPolicy();
+        policy.countUnicast();
+        policy.countUnicast();
+        policy.countBroadcast(3);
+        assertEquals(2, policy.getUnicastPackets());
+        assertEquals(1, policy.getBroadcastPackets());
+        assertEquals(3, policy.getBroadcastDatagrams());
+    }
+}
@@ -0,0 +1,109 @@
+package org.libbootstrapiotdevice.network;
+
+import java.util.PriorityQueue;
+
+/**
+ * A {@see ProtocolScheduler} with a virtual clock for tests. Tasks are only executed by
+ * {@see #runPending()} and {@see #advance(long)} on the calling thread, the clock only
+ * moves forward in advance(). Tasks may be posted from any thread.
+ */
+class VirtualScheduler implements ProtocolScheduler {
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long now = 0;
+    private long sequence = 0;
+
+    private class Entry implements Comparable<Entry>, Task {
+        final long due;
+        final long order;
+        final Runnable runnable;
+
+        Entry(long due, long order, Runnable runnable) {
+            this.due = due;
+            this.order = order;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (due != other.due)
+                return due < other.due ? -1 : 1;
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (VirtualScheduler.this) {
+                queue.remove(this);
+            }
+        }
+    }
+
+    @Override
+    public Task post(Runnable runnable) {
+        return schedule(runnable, 0);
+    }
+
+    @Override
+    public synchronized Task schedule(Runnable runnable, long delayMS) {
+        Entry entry = new Entry(now + delayMS, sequence++, runnable);
+        queue.add(entry);
+        return entry;
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return now;
+    }
+
+    /**
+     * @return Return the amount of tasks that are not executed yet.
+     */
+    synchronized int pending() {
+        return queue.size();
+    }
+
+    /**
+     * @return Return the due time of the next task or -1.
+     */
+    synchronized long nextDue() {
+        Entry entry = queue.peek();
+        return entry == null ? -1 : entry.due;
+    }
+
+    /**
+     * Run all tasks that are due now, including tasks posted by these tasks.
+     *
+     * @return Return the amount of executed tasks.
+     */
+    int runPending() {
+        return advance(0);
+    }
+
+    /**
+     * Move the clock forward and run all tasks that become due, in order. The clock is set to
+     * the due time of each task before it runs.
+     *
+     * @return Return the amount of executed tasks.
+     */
+    int advance(long ms) {
+        long target;
+        synchronized (this) {
+            target = now + ms;
+        }
+        int executed = 0;
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                entry = queue.peek();
+                if (entry == null || entry.due > target) {
+                    now = target;
+                    return executed;
+                }
+                queue.poll();
+                now = entry.due;
+            }
+            entry.runnable.run();
+            ++executed;
+        }
+    }
+}
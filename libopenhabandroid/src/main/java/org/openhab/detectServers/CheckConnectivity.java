@@ -93,55 +93,63 @@ public class CheckConnectivity {
         return items;
     }
 
-    public void check(final int index, @NonNull final OpenHABConnectivityListener listener) {
+    public void check(@NonNull final OpenHABConnectivityListener listener) {
         if (isChecking)
             return;
 
         isChecking = true;
 
-        Log.w(TAG, "CheckConnectivity " + server.getUrl() + " index: " + String.valueOf(index));
-        new AsyncTask<OpenHABServer, Void, Boolean>() {
+        Log.w(TAG, "CheckConnectivity " + server.getUrl());
+        new AsyncTask<OpenHABServer, Void, CheckResult>() {
             @Override
-            protected Boolean doInBackground(OpenHABServer... servers) {
-                boolean changed = servers[0].setConnectivity(OpenHABServer.Connectivity.NotReachable);
+            protected CheckResult doInBackground(OpenHABServer... servers) {
+                CheckResult result = new CheckResult();
                 try {
                     OpenHabRestItemResult[] items = getItems(new URL(servers[0].getUrl() + "/rest/items"));
                     if (items != null) {
-                        int itemCount = items.length;
-                        int sitemapCount = 0;
-                        int thingsCount = 0;
-                        changed |= servers[0].setConnectivity(OpenHABServer.Connectivity.Reachable);
+                        result.connectivity = OpenHABServer.Connectivity.Reachable;
+                        result.itemCount = items.length;
 
                         items = getItems(new URL(servers[0].getUrl() + "/rest/sitemaps"));
                         if (items != null) {
-                            sitemapCount = items.length;
+                            result.sitemapCount = items.length;
 
                             items = getItems(new URL(servers[0].getUrl() + "/rest/things"));
                             if (items != null) {
-                                thingsCount = items.length;
+                                result.thingsCount = items.length;
                             }
                         }
-                        changed |= servers[0].setDetails(itemCount, sitemapCount, thingsCount);
                     } else
-                        changed |= servers[0].setConnectivity(OpenHABServer.Connectivity.ReachableAccessDenied);
+                        result.connectivity = OpenHABServer.Connectivity.ReachableAccessDenied;
 
                 } catch (NoSuchAlgorithmException | IOException | KeyManagementException e) {
                     Log.e(TAG, e.getMessage());
-                    changed |= servers[0].setConnectivity(OpenHABServer.Connectivity.ConnectionError);
+                    result.connectivity = OpenHABServer.Connectivity.ConnectionError;
                 }
-                return changed;
+                return result;
             }
 
             @Override
-            protected void onPostExecute(Boolean changed) {
-                listener.openhabConnectivityChanged(server, index, changed);
+            protected void onPostExecute(CheckResult result) {
+                // Applied on the main thread and only once, a check with the same outcome is no change
+                boolean changed = server.setConnectivity(result.connectivity);
+                if (result.connectivity == OpenHABServer.Connectivity.Reachable)
+                    changed |= server.setDetails(result.itemCount, result.sitemapCount, result.thingsCount);
+                listener.openhabConnectivityChanged(server, changed);
                 isChecking = false;
             }
         }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, server);
     }
 
     public interface OpenHABConnectivityListener {
-        void openhabConnectivityChanged(@NonNull OpenHABServer server, int index, boolean changed);
+        void openhabConnectivityChanged(@NonNull OpenHABServer server, boolean changed);
+    }
+
+    private static class CheckResult {
+        OpenHABServer.Connectivity connectivity = OpenHABServer.Connectivity.NotReachable;
+        int itemCount;
+        int sitemapCount;
+        int thingsCount;
     }
 
     class OpenHabRestItemResult {
@@ -5,6 +5,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.net.nsd.NsdManager;
 import android.net.nsd.NsdServiceInfo;
 import android.net.wifi.SupplicantState;
@@ -18,8 +19,6 @@ import android.util.Log;
 import java.util.Collections;
 import java.util.Set;
 import java.util.WeakHashMap;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Semaphore;
 
 import de.duenndns.ssl.MemorizingTrustManager;
 
@@ -34,10 +33,8 @@ public class Discover {
     private final NsdManager mNsdManager;
     private final NsdManager.DiscoveryListener mDiscoveryListenerHttp = new NsDDiscoveryListener();
     private final NsdManager.DiscoveryListener mDiscoveryListenerHttps = new NsDDiscoveryListener();
-    private final Semaphore resolveLock = new Semaphore(1, true);
     Set<DiscoverListener> observers = Collections.newSetFromMap(
             new WeakHashMap<DiscoverListener, Boolean>());
-    Thread thread = null;
     Handler handler = new Handler(Looper.getMainLooper()) {
         @Override
         public void handleMessage(Message msg) {
@@ -63,7 +60,20 @@ public class Discover {
             }
         }
     };
-    private ArrayBlockingQueue<ResolveListener> resolveQueue = new ArrayBlockingQueue<>(10);
+    private final ResolveScheduler<NsdServiceInfo> resolveScheduler;
+    private SharedPreferences cachePreferences = null;
+    private final ServerCache serverCache = new ServerCache(new ServerCache.Storage() {
+        @Override
+        public String load(String network) {
+            return cachePreferences == null ? null : cachePreferences.getString(network, null);
+        }
+
+        @Override
+        public void store(String network, String data) {
+            if (cachePreferences != null)
+                cachePreferences.edit().putString(network, data).apply();
+        }
+    });
     private MemorizingTrustManager memorizingTrustManager;
     private boolean isRunning = false;
     private WifiReceiver wifiReceiver = new WifiReceiver();
@@ -72,6 +82,36 @@ public class Discover {
         this.mNsdManager = mNsdManager;
         if (mNsdManager == null)
             throw new RuntimeException("NSD_SERVICE not found");
+
+        resolveScheduler = new ResolveScheduler<>(new ResolveScheduler.Resolver<NsdServiceInfo>() {
+            @Override
+            public void resolve(NsdServiceInfo service, ResolveScheduler<NsdServiceInfo>.Attempt attempt) {
+                String network = serverCache.getNetwork();
+                if (network == null) {
+                    attempt.failed(false);
+                    return;
+                }
+                try {
+                    // A listener can only be used for one resolution
+                    Discover.this.mNsdManager.resolveService(service,
+                            new ResolveListener(attempt, network, getServiceKey(service),
+                                    SERVICE_HTTPS.equals(service.getServiceType())));
+                } catch (IllegalArgumentException e) {
+                    Log.e(TAG, "Resolve failed. " + e.getMessage());
+                    attempt.failed(false);
+                }
+            }
+        }, new ResolveScheduler.Timer() {
+            @Override
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                handler.postDelayed(runnable, delayMillis);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                handler.removeCallbacks(runnable);
+            }
+        }, ResolveScheduler.DEFAULT_PARALLEL);
     }
 
     public void addObserver(DiscoverListener observer) {
@@ -82,8 +122,40 @@ public class Discover {
         observers.clear();
     }
 
+    /**
+     * @return Return the SSID/BSSID of the connected wifi network or null.
+     */
+    private static String getNetworkKey(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        WifiInfo info = wifiManager.getConnectionInfo();
+        if (info == null || info.getBSSID() == null)
+            return null;
+        return info.getSSID() + "/" + info.getBSSID();
+    }
+
+    private static String getServiceKey(NsdServiceInfo service) {
+        return service.getServiceType() + service.getServiceName();
+    }
+
+    private void publish(String host, int port, boolean secure) {
+        OpenHABServer server = new OpenHABServer(host, port, secure);
+        MemorizingTrustManager mtm = memorizingTrustManager;
+        if (mtm != null)
+            server.setMemorizingTrustManager(mtm);
+        handler.sendMessage(handler.obtainMessage(MSG_DISCOVER_SUCCESS, server));
+    }
+
     public synchronized void discoverNow(Context context) {
         stopDiscoveryIntern();
+
+        // On start and on network changes: Show the servers known from the last time instantly.
+        // Resolutions of the previous network are dropped, their services may be found again.
+        if (serverCache.setNetwork(getNetworkKey(context), System.currentTimeMillis())) {
+            resolveScheduler.cancel();
+            for (ServerCache.Entry entry : serverCache.getEntries())
+                publish(entry.host, entry.port, entry.secure);
+        }
+
         try {
             mNsdManager.discoverServices(
                     SERVICE_HTTP, NsdManager.PROTOCOL_DNS_SD, mDiscoveryListenerHttp);
@@ -103,28 +175,10 @@ public class Discover {
 
         isRunning = true;
 
+        if (cachePreferences == null)
+            cachePreferences = context.getSharedPreferences("OpenHabServerCache", Context.MODE_PRIVATE);
         context.registerReceiver(wifiReceiver, new IntentFilter(WifiManager.NETWORK_STATE_CHANGED_ACTION));
 
-        if (thread == null) {
-            thread = new Thread() {
-                @Override
-                public void run() {
-                    try {
-                        while (true) {
-                            resolveLock.acquire();
-                            ResolveListener l = resolveQueue.take();
-                            if (l.service == null)
-                                break;
-                            mNsdManager.resolveService(l.service, l);
-                        }
-                    } catch (InterruptedException ignored) {
-                    }
-                    thread = null;
-                }
-            };
-            thread.start();
-        }
-
         handler.sendMessage(handler.obtainMessage(MSG_DISCOVER_START, context));
     }
 
@@ -148,21 +202,7 @@ public class Discover {
         } catch (IllegalArgumentException ignored) {
         }
 
-
-        if (thread != null) {
-            try {
-                resolveQueue.put(new ResolveListener(null, false));
-                if (thread != null)
-                    thread.join(500);
-            } catch (InterruptedException ignored) {
-            }
-            if (thread != null) {
-                thread.interrupt();
-                thread = null;
-            }
-            resolveQueue.clear();
-        }
-        resolveLock.release();
+        resolveScheduler.cancel();
 
         stopDiscoveryIntern();
 
@@ -170,29 +210,39 @@ public class Discover {
     }
 
     private class ResolveListener implements NsdManager.ResolveListener {
-        private final NsdServiceInfo service;
+        private final ResolveScheduler<NsdServiceInfo>.Attempt attempt;
+        // The network the service has been found in
+        private final String network;
+        private final String serviceKey;
         private boolean secure;
 
-        ResolveListener(NsdServiceInfo service, boolean secure) {
-            this.service = service;
+        ResolveListener(ResolveScheduler<NsdServiceInfo>.Attempt attempt, String network, String serviceKey,
+                        boolean secure) {
+            this.attempt = attempt;
+            this.network = network;
+            this.serviceKey = serviceKey;
             this.secure = secure;
         }
 
         public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
-            Log.e(TAG, "Resolve failed. " + serviceInfo + String.valueOf(errorCode));
-            resolveLock.release();
+            boolean busy = errorCode == NsdManager.FAILURE_ALREADY_ACTIVE || errorCode == NsdManager.FAILURE_MAX_LIMIT;
+            if (!busy)
+                Log.e(TAG, "Resolve failed. " + serviceInfo + String.valueOf(errorCode));
+            attempt.failed(busy);
         }
 
         @Override
         public void onServiceResolved(NsdServiceInfo serviceInfo) {
             //sLog.e(TAG, "Resolve Succeeded. " + serviceInfo);
 
-            OpenHABServer server = new OpenHABServer(serviceInfo.getHost().getHostAddress(),
-                    serviceInfo.getPort(), secure);
-            server.setMemorizingTrustManager(memorizingTrustManager);
-            handler.sendMessage(handler.obtainMessage(MSG_DISCOVER_SUCCESS, server));
+            String host = serviceInfo.getHost().getHostAddress();
+            // Resolved after a network change: Not cached and not shown in the new network
+            if (network.equals(serverCache.getNetwork())) {
+                serverCache.put(network, serviceKey, host, serviceInfo.getPort(), secure, System.currentTimeMillis());
+                publish(host, serviceInfo.getPort(), secure);
+            }
 
-            resolveLock.release();
+            attempt.succeeded();
         }
     }
 
@@ -206,20 +256,26 @@ public class Discover {
         @Override
         public void onServiceFound(NsdServiceInfo service) {
             //sLog.w(TAG, "Service discovery success " + service);
-            try {
-                if (service.getServiceType().equals(SERVICE_HTTP)) {
-                    resolveQueue.put(new ResolveListener(service, false));
-                } else if (service.getServiceType().equals(SERVICE_HTTPS)) {
-                    resolveQueue.put(new ResolveListener(service, true));
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            String type = service.getServiceType();
+            if (!type.equals(SERVICE_HTTP) && !type.equals(SERVICE_HTTPS))
+                return;
+
+            // Resolved recently: Not resolved again until the entry expires
+            String key = getServiceKey(service);
+            ServerCache.Entry entry = serverCache.getFresh(key, System.currentTimeMillis());
+            if (entry != null) {
+                publish(entry.host, entry.port, entry.secure);
+                return;
             }
+            // Never blocks the callback thread. Found again while it is resolved: Ignored
+            resolveScheduler.submit(key, service);
         }
 
         @Override
         public void onServiceLost(NsdServiceInfo service) {
             //Log.e(TAG, "service lost " + service);
+            // May come back with another endpoint
+            serverCache.remove(getServiceKey(service));
         }
 
         @Override
@@ -134,13 +134,13 @@ public class EditServerActivity extends AppCompatActivity implements CheckConnec
 
                 server.setCredentials(txtUsername.getText().toString(), txtPassword.getText().toString());
                 progressBar.setVisibility(View.VISIBLE);
-                server.updateConnectivity(0, EditServerActivity.this);
+                server.updateConnectivity(EditServerActivity.this);
             }
         });
     }
 
     @Override
-    public void openhabConnectivityChanged(@NonNull OpenHABServer server, int index, boolean changed) {
+    public void openhabConnectivityChanged(@NonNull OpenHABServer server, boolean changed) {
         progressBar.setVisibility(View.INVISIBLE);
         switch (server.getConnectivity()) {
             case Reachable:
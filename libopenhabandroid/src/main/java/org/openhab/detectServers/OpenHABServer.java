@@ -4,6 +4,8 @@ import android.content.Context;
 
 import org.openhab.R;
 
+import java.util.Arrays;
+
 import de.duenndns.ssl.MemorizingTrustManager;
 
 /**
@@ -40,8 +42,8 @@ public class OpenHABServer {
         return changed;
     }
 
-    public void updateConnectivity(int index, CheckConnectivity.OpenHABConnectivityListener listener) {
-        checkConnectivity.check(index, listener);
+    public void updateConnectivity(CheckConnectivity.OpenHABConnectivityListener listener) {
+        checkConnectivity.check(listener);
     }
 
     public void setMemorizingTrustManager(MemorizingTrustManager mtm) {
@@ -87,6 +89,22 @@ public class OpenHABServer {
         return host;
     }
 
+    /**
+     * @return Return the key of this server (host:port:secure). Discovering the same
+     * server again results in the same key.
+     */
+    public String getKey() {
+        return host + ":" + String.valueOf(port) + ":" + String.valueOf(secure);
+    }
+
+    /**
+     * A hash of the properties of this server that are shown in a server list.
+     */
+    public int stamp() {
+        return Arrays.hashCode(new Object[]{host, port, secure, password, connectivity,
+                itemCount, sitemapCount, thingsCount});
+    }
+
     /**
      * @return Return a stringified version of all necessary information for an openHab server
      * (url + username + password). The information pieces are separated by tabulators.
@@ -0,0 +1,216 @@
+package org.openhab.detectServers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Resolves found services in parallel, up to a limit. Services with the same key (service type
+ * and name) are resolved only once at a time, found again while they are queued or resolved
+ * they are ignored.
+ * <p/>
+ * Every resolution has a timeout, a lost callback does not block the other services. A
+ * resolution that fails because the platform is busy (FAILURE_ALREADY_ACTIVE,
+ * FAILURE_MAX_LIMIT) or times out is retried with an exponential backoff. Platforms that only
+ * allow one resolution per client at a time answer further ones with FAILURE_ALREADY_ACTIVE:
+ * The limit of parallel resolutions is lowered to the number of resolutions the platform
+ * accepted. After {@see #RAISE_AFTER_SUCCESSES} successful resolutions in a row it is raised
+ * by one again, up to the initial limit, and {@see #cancel()} restores the initial limit.
+ * <p/>
+ * Thread safe: Services may be submitted and attempts finished from any thread.
+ *
+ * @param <S> The service type, NsdServiceInfo on Android.
+ */
+public class ResolveScheduler<S> {
+    public static final int DEFAULT_PARALLEL = 4;
+    public static final int TIMEOUT_MS = 5000;
+    public static final int BACKOFF_MS = 200;
+    public static final int MAX_ATTEMPTS = 5;
+    public static final int RAISE_AFTER_SUCCESSES = 8;
+
+    public interface Resolver<S> {
+        /**
+         * Start to resolve the given service. The attempt has to be finished by calling
+         * {@see Attempt#succeeded()} or {@see Attempt#failed(boolean)}, on any thread.
+         */
+        void resolve(S service, ResolveScheduler<S>.Attempt attempt);
+    }
+
+    /**
+     * Calls runnables delayed, for example a Handler.
+     */
+    public interface Timer {
+        void postDelayed(Runnable runnable, long delayMillis);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    private final Resolver<S> resolver;
+    private final Timer timer;
+    private final int maxParallel;
+    // Guarded by this
+    private final Queue<Task> queue = new ArrayDeque<>();
+    private final Set<String> keys = new HashSet<>();
+    private final List<Attempt> active = new ArrayList<>();
+    private int limit;
+    // Successful resolutions since the limit was changed
+    private int successes = 0;
+    private int generation = 0;
+
+    public ResolveScheduler(Resolver<S> resolver, Timer timer, int maxParallel) {
+        this.resolver = resolver;
+        this.timer = timer;
+        this.maxParallel = maxParallel;
+        this.limit = maxParallel;
+    }
+
+    /**
+     * Resolve the given service, unless a service with the same key is queued or resolved already.
+     *
+     * @return Return true if the service has been queued.
+     */
+    public boolean submit(String key, S service) {
+        synchronized (this) {
+            if (!keys.add(key))
+                return false;
+            queue.add(new Task(key, service));
+        }
+        startQueued();
+        return true;
+    }
+
+    /**
+     * Drop all queued services and ignore the results of running resolutions. The limit of
+     * parallel resolutions is reset to the initial one.
+     */
+    public void cancel() {
+        List<Attempt> cancelled;
+        synchronized (this) {
+            ++generation;
+            queue.clear();
+            keys.clear();
+            cancelled = new ArrayList<>(active);
+            active.clear();
+            limit = maxParallel;
+            successes = 0;
+        }
+        for (Attempt attempt : cancelled)
+            timer.removeCallbacks(attempt.timeout);
+    }
+
+    /**
+     * @return Return the current limit of parallel resolutions.
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Return the number of queued and running resolutions.
+     */
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    private void startQueued() {
+        List<Attempt> started = new ArrayList<>();
+        synchronized (this) {
+            while (active.size() < limit && !queue.isEmpty()) {
+                Attempt attempt = new Attempt(queue.poll());
+                active.add(attempt);
+                started.add(attempt);
+            }
+        }
+        // Outside of the lock, the resolver may finish an attempt immediately
+        for (Attempt attempt : started) {
+            timer.postDelayed(attempt.timeout, TIMEOUT_MS);
+            resolver.resolve(attempt.task.service, attempt);
+        }
+    }
+
+    private void finish(Attempt attempt, boolean succeeded, boolean retry, boolean busy) {
+        synchronized (this) {
+            if (attempt.generation != generation || !active.remove(attempt))
+                return;
+            // The platform accepted the other running resolutions, but not this one
+            if (busy) {
+                limit = Math.max(1, Math.min(limit, active.size()));
+                successes = 0;
+            } else if (succeeded && limit < maxParallel && ++successes >= RAISE_AFTER_SUCCESSES) {
+                // The platform may have been busy with resolutions of another client
+                ++limit;
+                successes = 0;
+            }
+            if (!retry || ++attempt.task.attempts >= MAX_ATTEMPTS) {
+                keys.remove(attempt.task.key);
+            } else {
+                final Task task = attempt.task;
+                final int taskGeneration = generation;
+                timer.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        retry(task, taskGeneration);
+                    }
+                }, (long) BACKOFF_MS << (task.attempts - 1));
+            }
+        }
+        startQueued();
+    }
+
+    private void retry(Task task, int taskGeneration) {
+        synchronized (this) {
+            if (taskGeneration != generation)
+                return;
+            queue.add(task);
+        }
+        startQueued();
+    }
+
+    private class Task {
+        final String key;
+        final S service;
+        int attempts = 0;
+
+        Task(String key, S service) {
+            this.key = key;
+            this.service = service;
+        }
+    }
+
+    /**
+     * One resolution of a service. Only the first call to succeeded() or failed() counts, calls
+     * after a timeout or {@see #cancel()} are ignored.
+     */
+    public class Attempt {
+        private final Task task;
+        private final int generation;
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                finish(Attempt.this, false, true, false);
+            }
+        };
+
+        Attempt(Task task) {
+            this.task = task;
+            this.generation = ResolveScheduler.this.generation;
+        }
+
+        public void succeeded() {
+            timer.removeCallbacks(timeout);
+            finish(this, true, false, false);
+        }
+
+        /**
+         * @param busy The platform is busy with other resolutions. The service is resolved
+         *             again later, other failures are final.
+         */
+        public void failed(boolean busy) {
+            timer.removeCallbacks(timeout);
+            finish(this, false, busy, busy);
+        }
+    }
+}
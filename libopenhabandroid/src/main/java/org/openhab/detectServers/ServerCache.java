@@ -0,0 +1,173 @@
+package org.openhab.detectServers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches resolved services per network (SSID/BSSID), in memory and in a {@see Storage}.
+ * <p/>
+ * A cached service younger than {@see #TTL_MS} does not need to be resolved again when it is
+ * found. Older entries are still known, for example to show them on start, but are resolved
+ * again. Entries older than {@see #MAX_AGE_MS} are dropped. Services that are lost or resolved
+ * to another endpoint replace their entry.
+ * <p/>
+ * Thread safe. Times are wall clock times (System.currentTimeMillis()), they are persisted.
+ */
+public class ServerCache {
+    public static final long TTL_MS = 10 * 60 * 1000;
+    public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Persists the cache of a network, for example in the shared preferences.
+     */
+    public interface Storage {
+        String load(String network);
+
+        void store(String network, String data);
+    }
+
+    public static class Entry {
+        // Service type and name
+        String service;
+        public String host;
+        public int port;
+        public boolean secure;
+        // Time of the last resolution
+        public long resolved;
+
+        Entry(String service, String host, int port, boolean secure, long resolved) {
+            this.service = service;
+            this.host = host;
+            this.port = port;
+            this.secure = secure;
+            this.resolved = resolved;
+        }
+    }
+
+    private final Storage storage;
+    private final Gson gson = new Gson();
+    private final Map<String, Map<String, Entry>> networks = new HashMap<>();
+    private String network = null;
+    private Map<String, Entry> entries = null;
+
+    public ServerCache(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Switch to the cache of the given network. Loads it from the storage the first time.
+     *
+     * @param network The network, null if not connected to a wifi network. Nothing is cached then.
+     * @return Return true if the network changed.
+     */
+    public synchronized boolean setNetwork(String network, long now) {
+        if (network == null ? this.network == null : network.equals(this.network))
+            return false;
+        this.network = network;
+        if (network == null) {
+            entries = null;
+            return true;
+        }
+
+        entries = networks.get(network);
+        if (entries == null) {
+            entries = load(network);
+            networks.put(network, entries);
+        }
+        prune(now);
+        return true;
+    }
+
+    /**
+     * @return Return the current network, null if not connected to a wifi network.
+     */
+    public synchronized String getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return Return all entries of the current network, expired ones included.
+     */
+    public synchronized List<Entry> getEntries() {
+        if (entries == null)
+            return new ArrayList<>();
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * @return Return the entry of the given service if it is younger than {@see #TTL_MS}, null
+     * if the service needs to be resolved.
+     */
+    public synchronized Entry getFresh(String service, long now) {
+        if (entries == null)
+            return null;
+        Entry entry = entries.get(service);
+        if (entry == null || now - entry.resolved >= TTL_MS || now < entry.resolved)
+            return null;
+        return entry;
+    }
+
+    /**
+     * Store a resolved service.
+     *
+     * @param network The network the service has been resolved in. Results of a previous
+     *                network are dropped.
+     * @return Return true if the service is new or has been resolved to another endpoint.
+     */
+    public synchronized boolean put(String network, String service, String host, int port, boolean secure, long now) {
+        if (entries == null || !network.equals(this.network))
+            return false;
+        Entry old = entries.put(service, new Entry(service, host, port, secure, now));
+        store();
+        return old == null || !old.host.equals(host) || old.port != port || old.secure != secure;
+    }
+
+    /**
+     * The service is lost, it is resolved again when it is found again.
+     */
+    public synchronized void remove(String service) {
+        if (entries != null && entries.remove(service) != null)
+            store();
+    }
+
+    private void prune(long now) {
+        boolean changed = false;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.resolved >= MAX_AGE_MS) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        if (changed)
+            store();
+    }
+
+    private Map<String, Entry> load(String network) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        String data = storage.load(network);
+        if (data == null)
+            return entries;
+        try {
+            Entry[] stored = gson.fromJson(data, Entry[].class);
+            if (stored != null)
+                for (Entry entry : stored)
+                    if (entry.service != null && entry.host != null)
+                        entries.put(entry.service, entry);
+        } catch (JsonSyntaxException ignored) {
+        }
+        return entries;
+    }
+
+    private void store() {
+        storage.store(network, gson.toJson(entries.values().toArray(new Entry[entries.size()])));
+    }
+}
@@ -7,6 +7,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -18,17 +19,17 @@ import org.openhab.detectServers.CheckConnectivity;
 import org.openhab.detectServers.DiscoverListener;
 import org.openhab.detectServers.OpenHABServer;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
- * OpenHab server adapter for recyclerviews.
+ * OpenHab server adapter for recyclerviews. Discovered servers and connectivity changes are
+ * shown with the next frame, see {@see ServerList}.
  */
-public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements DiscoverListener, CheckConnectivity.OpenHABConnectivityListener, View.OnClickListener {
-    List<OpenHABServer> servers = new ArrayList<>();
+public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements DiscoverListener,
+        CheckConnectivity.OpenHABConnectivityListener, ServerList.Callback, View.OnClickListener {
+    final ServerList servers;
     Drawable drawables[] = new Drawable[]{null, null, null};
     ColorStateList colorStateLists[] = new ColorStateList[3];
-    int selected = -1;
+    // By instance, the positions change if a server is removed
+    OpenHABServer selected = null;
 
     onSelectionChange observer;
 
@@ -64,7 +65,17 @@ public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements
             drawables[2] = resources.getDrawable(R.drawable.ic_error_black_24dp);
         }
 
-
+        servers = new ServerList(new ServerList.FrameScheduler() {
+            @Override
+            public void postFrameCallback(final Runnable runnable) {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        runnable.run();
+                    }
+                });
+            }
+        }, this);
     }
 
     public void setOnSelectionChangeListener(onSelectionChange observer) {
@@ -72,29 +83,31 @@ public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements
     }
 
     @Override
-    public void openhabConnectivityChanged(@NonNull OpenHABServer server, int index, boolean changed) {
+    public void openhabConnectivityChanged(@NonNull OpenHABServer server, boolean changed) {
+        // Compared with the shown state with the next frame, nothing to do if nothing is visible
         if (changed)
-            notifyItemChanged(index);
+            servers.invalidate();
     }
 
     public OpenHABServer getSelected() {
-        if (selected == -1)
-            return null;
-        return servers.get(selected);
+        return selected;
     }
 
 
     @Override
     public void onClick(View v) {
-        Integer position = (Integer) v.getTag();
-        if (position == null)
+        // The server, positions of bound views are outdated after a removal
+        OpenHABServer server = (OpenHABServer) v.getTag();
+        int position = servers.indexOf(server);
+        if (position == -1)
             return;
-        int last = selected;
-        selected = position;
+        OpenHABServer last = selected;
+        selected = server;
         notifyItemChanged(position);
         if (last != selected) {
-            if (last != -1) {
-                notifyItemChanged(last);
+            int lastPosition = servers.indexOf(last);
+            if (lastPosition != -1) {
+                notifyItemChanged(lastPosition);
             }
             notifyItemChanged(position);
 
@@ -120,8 +133,8 @@ public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements
         OpenHABServer server = servers.get(position);
         Context c = viewHolder.txtTitle.getContext();
         viewHolder.txtTitle.setText(server.getHost());
-        viewHolder.clickableView.setTag(position);
-        viewHolder.clickableView.setPressed(position == selected);
+        viewHolder.clickableView.setTag(server);
+        viewHolder.clickableView.setPressed(server == selected);
         viewHolder.txtSubtitle.setText(server.getDetailsString(c));
         switch (server.getConnectivity()) {
             case NotReachable:
@@ -151,22 +164,8 @@ public class Adapter extends RecyclerView.Adapter<Adapter.ViewHolder> implements
 
     @Override
     public void onOpenHABDiscovered(OpenHABServer server) {
-        int index = -1;
-        for (int i=0;i<servers.size();++i) {
-            if (servers.get(i).getUrl().equals(server.getUrl())) {
-                server = servers.get(i);
-                index = i;
-                break;
-            }
-        }
-
-        if (index == -1) {
-            index = servers.size();
-            servers.add(server);
-            notifyItemInserted(index);
-        }
-
-        server.updateConnectivity(index, this);
+        server = servers.add(server);
+        server.updateConnectivity(this);
     }
 
     @Override
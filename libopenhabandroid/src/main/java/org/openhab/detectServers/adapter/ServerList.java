@@ -0,0 +1,170 @@
+package org.openhab.detectServers.adapter;
+
+import org.openhab.detectServers.OpenHABServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The servers of a server list, indexed by their key (host:port:secure). Added and changed
+ * servers are not shown immediately: All changes until the next frame are compared against
+ * the shown list and dispatched as item ranges. Rediscovering known servers or connectivity
+ * checks without a visible change do not result in any notification.
+ * <p/>
+ * Servers are appended. They are only removed if an edited server gets the key of another
+ * server, that one is dropped immediately. Main thread only.
+ */
+public class ServerList {
+    /**
+     * Calls the given runnable with the next frame, on the main thread.
+     */
+    public interface FrameScheduler {
+        void postFrameCallback(Runnable runnable);
+    }
+
+    public interface Callback {
+        void notifyItemRangeInserted(int positionStart, int itemCount);
+
+        void notifyItemRangeChanged(int positionStart, int itemCount);
+
+        void notifyItemRangeRemoved(int positionStart, int itemCount);
+    }
+
+    private final FrameScheduler frames;
+    private final Callback callback;
+    // The shown servers
+    private final List<OpenHABServer> servers = new ArrayList<>();
+    private int[] shownStamps = new int[0];
+    // Added servers, shown with the next frame
+    private final List<OpenHABServer> added = new ArrayList<>();
+    private final Map<String, OpenHABServer> index = new HashMap<>();
+    private final Map<OpenHABServer, String> keys = new IdentityHashMap<>();
+    private boolean frameRequested = false;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            onFrame();
+        }
+    };
+
+    /**
+     * @param frames   The frame callbacks, for example of the Choreographer.
+     * @param callback Notifies the view of the changes.
+     */
+    public ServerList(FrameScheduler frames, Callback callback) {
+        this.frames = frames;
+        this.callback = callback;
+    }
+
+    /**
+     * Add a server. If a server with the same key is known already, the known server is kept.
+     * A known server instance with a changed key (edited by the user) is indexed again, another
+     * server with the new key is removed.
+     *
+     * @return Return the server instance of the list.
+     */
+    public OpenHABServer add(OpenHABServer server) {
+        String key = server.getKey();
+        String oldKey = keys.get(server);
+        if (oldKey != null) {
+            if (!oldKey.equals(key)) {
+                index.remove(oldKey);
+                OpenHABServer duplicate = index.get(key);
+                if (duplicate != null)
+                    remove(duplicate);
+                index.put(key, server);
+                keys.put(server, key);
+            }
+            invalidate();
+            return server;
+        }
+
+        OpenHABServer known = index.get(key);
+        if (known != null)
+            return known;
+
+        index.put(key, server);
+        keys.put(server, key);
+        added.add(server);
+        invalidate();
+        return server;
+    }
+
+    private void remove(OpenHABServer server) {
+        keys.remove(server);
+        if (added.remove(server))
+            return;
+        int position = indexOf(server);
+        servers.remove(position);
+        int[] stamps = new int[shownStamps.length - 1];
+        System.arraycopy(shownStamps, 0, stamps, 0, position);
+        System.arraycopy(shownStamps, position + 1, stamps, position, stamps.length - position);
+        shownStamps = stamps;
+        callback.notifyItemRangeRemoved(position, 1);
+    }
+
+    /**
+     * The shown properties of a server may have changed. Compared with the next frame.
+     */
+    public void invalidate() {
+        if (frameRequested)
+            return;
+        frameRequested = true;
+        frames.postFrameCallback(frame);
+    }
+
+    public OpenHABServer get(int position) {
+        return servers.get(position);
+    }
+
+    /**
+     * @return Return the position of the given shown server instance or -1.
+     */
+    public int indexOf(OpenHABServer server) {
+        for (int i = 0; i < servers.size(); ++i)
+            if (servers.get(i) == server)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return Return the number of shown servers.
+     */
+    public int size() {
+        return servers.size();
+    }
+
+    private void onFrame() {
+        frameRequested = false;
+        int shown = servers.size();
+        servers.addAll(added);
+        added.clear();
+
+        int[] stamps = Arrays.copyOf(shownStamps, servers.size());
+        int changedStart = -1;
+        for (int i = 0; i < shown; ++i) {
+            int stamp = servers.get(i).stamp();
+            if (stamp != stamps[i]) {
+                stamps[i] = stamp;
+                if (changedStart == -1)
+                    changedStart = i;
+            } else if (changedStart != -1) {
+                callback.notifyItemRangeChanged(changedStart, i - changedStart);
+                changedStart = -1;
+            }
+        }
+        if (changedStart != -1)
+            callback.notifyItemRangeChanged(changedStart, shown - changedStart);
+
+        for (int i = shown; i < stamps.length; ++i)
+            stamps[i] = servers.get(i).stamp();
+        shownStamps = stamps;
+        if (stamps.length > shown)
+            callback.notifyItemRangeInserted(shown, stamps.length - shown);
+    }
+}
@@ -0,0 +1,177 @@
+package org.openhab.detectServers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test parallel resolution, de-duplication, timeouts and retries of the resolve scheduler.
+ * The timer is a virtual clock that the test advances by hand.
+ */
+public class ResolveSchedulerTest implements ResolveScheduler.Resolver<String>, ResolveScheduler.Timer {
+    long now = 0;
+    List<Object[]> timers = new ArrayList<>();
+    // Attempts the resolver has been asked for and not yet finished
+    List<ResolveScheduler<String>.Attempt> running = new ArrayList<>();
+    List<String> services = new ArrayList<>();
+    int platformLimit = Integer.MAX_VALUE;
+    ResolveScheduler<String> scheduler;
+
+    @Override
+    public void resolve(String service, ResolveScheduler<String>.Attempt attempt) {
+        services.add(service);
+        if (running.size() >= platformLimit) {
+            attempt.failed(true);
+            return;
+        }
+        running.add(attempt);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        timers.add(new Object[]{now + delayMillis, runnable});
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        Iterator<Object[]> iterator = timers.iterator();
+        while (iterator.hasNext())
+            if (iterator.next()[1] == runnable)
+                iterator.remove();
+    }
+
+    /**
+     * Run all timers due within the given time, the earliest first.
+     */
+    private void advance(long millis) {
+        long end = now + millis;
+        while (true) {
+            Object[] next = null;
+            for (Object[] timer : timers)
+                if ((Long) timer[0] <= end && (next == null || (Long) timer[0] < (Long) next[0]))
+                    next = timer;
+            if (next == null)
+                break;
+            timers.remove(next);
+            now = (Long) next[0];
+            ((Runnable) next[1]).run();
+        }
+        now = end;
+    }
+
+    private void succeedAll() {
+        List<ResolveScheduler<String>.Attempt> attempts = new ArrayList<>(running);
+        running.clear();
+        for (ResolveScheduler<String>.Attempt attempt : attempts)
+            attempt.succeeded();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ResolveScheduler<>(this, this, 4);
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        for (int i = 0; i < 10; ++i)
+            assertTrue(scheduler.submit("openhab" + i, "openhab" + i));
+        // Identical service names, found on several interfaces
+        assertFalse(scheduler.submit("openhab0", "openhab0"));
+        assertEquals(4, running.size());
+
+        int rounds = 0;
+        while (!running.isEmpty()) {
+            succeedAll();
+            ++rounds;
+        }
+        assertEquals(3, rounds);
+        assertEquals(10, services.size());
+        assertEquals(0, scheduler.size());
+        assertEquals(0, timers.size());
+
+        // Resolved again when found again
+        assertTrue(scheduler.submit("openhab0", "openhab0"));
+    }
+
+    @Test
+    public void testAlreadyActive() throws Exception {
+        // A platform that resolves only one service at a time
+        platformLimit = 1;
+        for (int i = 0; i < 5; ++i)
+            scheduler.submit("openhab" + i, "openhab" + i);
+        assertEquals(1, scheduler.getLimit());
+        assertEquals(1, running.size());
+
+        for (int i = 0; i < 5; ++i) {
+            succeedAll();
+            advance(ResolveScheduler.BACKOFF_MS * 2);
+        }
+        assertEquals(0, scheduler.size());
+        assertEquals(1, scheduler.getLimit());
+    }
+
+    @Test
+    public void testRaiseLimit() throws Exception {
+        // The platform is busy with another client for a while
+        platformLimit = 1;
+        for (int i = 0; i < 20; ++i)
+            scheduler.submit("openhab" + i, "openhab" + i);
+        assertEquals(1, scheduler.getLimit());
+
+        platformLimit = Integer.MAX_VALUE;
+        for (int i = 0; i < ResolveScheduler.RAISE_AFTER_SUCCESSES - 1; ++i)
+            succeedAll();
+        assertEquals(1, scheduler.getLimit());
+        succeedAll();
+        assertEquals(2, scheduler.getLimit());
+        assertEquals(2, running.size());
+
+        // The next discovery starts with the initial limit
+        scheduler.cancel();
+        assertEquals(4, scheduler.getLimit());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        scheduler.submit("lost", "lost");
+        scheduler.submit("openhab", "openhab");
+        ResolveScheduler<String>.Attempt lost = running.remove(0);
+        succeedAll();
+
+        // The lost callback is retried after the timeout and the backoff
+        advance(ResolveScheduler.TIMEOUT_MS);
+        assertEquals(0, running.size());
+        advance(ResolveScheduler.BACKOFF_MS);
+        assertEquals(1, running.size());
+        // A late callback of the timed out attempt is ignored
+        lost.succeeded();
+        assertEquals(1, scheduler.size());
+
+        // Gives up after MAX_ATTEMPTS
+        running.clear();
+        for (int i = 0; i < ResolveScheduler.MAX_ATTEMPTS; ++i)
+            advance(ResolveScheduler.TIMEOUT_MS + (ResolveScheduler.BACKOFF_MS << i));
+        assertEquals(0, scheduler.size());
+        assertEquals(ResolveScheduler.MAX_ATTEMPTS + 1, services.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        for (int i = 0; i < 6; ++i)
+            scheduler.submit("openhab" + i, "openhab" + i);
+        running.get(0).failed(true);
+        scheduler.cancel();
+        assertEquals(0, scheduler.size());
+        advance(ResolveScheduler.TIMEOUT_MS * 10);
+        succeedAll();
+        assertEquals(4, services.size());
+        assertEquals(0, scheduler.size());
+    }
+}
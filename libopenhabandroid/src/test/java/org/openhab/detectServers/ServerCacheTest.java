@@ -0,0 +1,104 @@
+package org.openhab.detectServers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the TTL, the networks and the persistence of the resolved service cache.
+ */
+public class ServerCacheTest implements ServerCache.Storage {
+    static final String HOME = "\"home\"/00:11:22:33:44:55";
+    static final String OFFICE = "\"office\"/66:77:88:99:aa:bb";
+    Map<String, String> stored = new HashMap<>();
+    int stores = 0;
+    ServerCache cache;
+
+    @Override
+    public String load(String network) {
+        return stored.get(network);
+    }
+
+    @Override
+    public void store(String network, String data) {
+        stored.put(network, data);
+        ++stores;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ServerCache(this);
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        assertTrue(cache.setNetwork(HOME, 0));
+        assertFalse(cache.setNetwork(HOME, 0));
+        assertNull(cache.getFresh("_openhab-server._tcp.openHAB", 0));
+
+        assertTrue(cache.put(HOME, "_openhab-server._tcp.openHAB", "192.168.1.2", 8080, false, 1000));
+        assertNotNull(cache.getFresh("_openhab-server._tcp.openHAB", 1000 + ServerCache.TTL_MS - 1));
+        // Expired: Resolved again, but still known
+        assertNull(cache.getFresh("_openhab-server._tcp.openHAB", 1000 + ServerCache.TTL_MS));
+        assertEquals(1, cache.getEntries().size());
+
+        // Resolved to the same endpoint again
+        assertFalse(cache.put(HOME, "_openhab-server._tcp.openHAB", "192.168.1.2", 8080, false, 1000 + ServerCache.TTL_MS));
+        assertTrue(cache.put(HOME, "_openhab-server._tcp.openHAB", "192.168.1.3", 8080, false, 1000 + ServerCache.TTL_MS));
+
+        cache.remove("_openhab-server._tcp.openHAB");
+        assertNull(cache.getFresh("_openhab-server._tcp.openHAB", 1000 + ServerCache.TTL_MS));
+    }
+
+    @Test
+    public void testNetworks() throws Exception {
+        cache.setNetwork(HOME, 0);
+        cache.put(HOME, "_openhab-server._tcp.openHAB", "192.168.1.2", 8080, false, 0);
+        cache.put(HOME, "_openhab-server-ssl._tcp.openHAB", "192.168.1.2", 8443, true, 0);
+        cache.setNetwork(OFFICE, 0);
+        assertEquals(0, cache.getEntries().size());
+        // Resolved in the previous network: Dropped
+        assertFalse(cache.put(HOME, "_openhab-server._tcp.openHAB", "192.168.1.3", 8080, false, 0));
+        assertEquals(0, cache.getEntries().size());
+        cache.put(OFFICE, "_openhab-server._tcp.openHAB", "10.0.0.2", 8080, false, 0);
+
+        // Not connected: Nothing is cached
+        assertTrue(cache.setNetwork(null, 0));
+        assertFalse(cache.put(OFFICE, "_openhab-server._tcp.openHAB", "10.0.0.2", 8080, false, 0));
+        assertNull(cache.getFresh("_openhab-server._tcp.openHAB", 0));
+
+        // App start: Loaded from the storage
+        cache = new ServerCache(this);
+        cache.setNetwork(HOME, 1000);
+        assertEquals(2, cache.getEntries().size());
+        ServerCache.Entry entry = cache.getFresh("_openhab-server-ssl._tcp.openHAB", 1000);
+        assertNotNull(entry);
+        assertEquals("192.168.1.2", entry.host);
+        assertEquals(8443, entry.port);
+        assertTrue(entry.secure);
+        cache.setNetwork(OFFICE, 1000);
+        assertEquals("10.0.0.2", cache.getEntries().get(0).host);
+
+        // Too old entries are dropped on load
+        int before = stores;
+        cache = new ServerCache(this);
+        cache.setNetwork(HOME, ServerCache.MAX_AGE_MS);
+        assertEquals(0, cache.getEntries().size());
+        assertEquals(before + 1, stores);
+    }
+
+    @Test
+    public void testCorrupt() throws Exception {
+        stored.put(HOME, "{no json");
+        cache.setNetwork(HOME, 0);
+        assertEquals(0, cache.getEntries().size());
+    }
+}
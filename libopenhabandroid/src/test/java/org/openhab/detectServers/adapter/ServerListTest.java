@@ -0,0 +1,135 @@
+package org.openhab.detectServers.adapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.detectServers.OpenHABServer;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test the keyed server index and the per frame notifications of the server list.
+ */
+public class ServerListTest implements ServerList.Callback {
+    Queue<Runnable> frames = new LinkedList<>();
+    ServerList servers;
+    List<String> notifications = new ArrayList<>();
+
+    @Override
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        notifications.add("inserted " + positionStart + "+" + itemCount);
+    }
+
+    @Override
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+        notifications.add("changed " + positionStart + "+" + itemCount);
+    }
+
+    @Override
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        notifications.add("removed " + positionStart + "+" + itemCount);
+    }
+
+    private void frame() {
+        while (!frames.isEmpty())
+            frames.poll().run();
+    }
+
+    private void discover(int count) {
+        for (int i = 0; i < count; ++i) {
+            servers.add(new OpenHABServer("192.168.1." + i, 8080, false));
+            servers.add(new OpenHABServer("192.168.1." + i, 8443, true));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        servers = new ServerList(new ServerList.FrameScheduler() {
+            @Override
+            public void postFrameCallback(Runnable runnable) {
+                frames.add(runnable);
+            }
+        }, this);
+    }
+
+    @Test
+    public void testRediscovery() throws Exception {
+        discover(20);
+        // Not shown before the frame
+        assertEquals(0, servers.size());
+        assertEquals(1, frames.size());
+        frame();
+        assertEquals(40, servers.size());
+        assertEquals("[inserted 0+40]", notifications.toString());
+
+        // Rediscovery of the same servers and checks without a visible change
+        notifications.clear();
+        for (int round = 0; round < 10; ++round) {
+            discover(20);
+            for (int i = 0; i < servers.size(); ++i)
+                servers.invalidate();
+            frame();
+        }
+        assertEquals(40, servers.size());
+        assertEquals(0, notifications.size());
+
+        // The known instance is kept
+        OpenHABServer known = servers.get(3);
+        assertSame(known, servers.add(new OpenHABServer(known.getHost(), known.getPort(), known.isSecure())));
+    }
+
+    @Test
+    public void testConnectivity() throws Exception {
+        discover(5);
+        frame();
+        notifications.clear();
+
+        // Connectivity checks of several servers finish within one frame
+        servers.get(2).setConnectivity(OpenHABServer.Connectivity.Reachable);
+        servers.invalidate();
+        servers.get(3).setDetails(10, 1, 2);
+        servers.invalidate();
+        servers.get(7).setConnectivity(OpenHABServer.Connectivity.ConnectionError);
+        servers.invalidate();
+        discover(6);
+        frame();
+        assertEquals("[changed 2+2, changed 7+1, inserted 10+2]", notifications.toString());
+    }
+
+    @Test
+    public void testEdited() throws Exception {
+        discover(2);
+        frame();
+        notifications.clear();
+
+        // The user changes the port of a known server
+        OpenHABServer edited = servers.get(1);
+        edited.setHost(edited.getHost(), 9443, true);
+        assertSame(edited, servers.add(edited));
+        frame();
+        assertEquals(4, servers.size());
+        assertEquals("[changed 1+1]", notifications.toString());
+
+        // Discovered again under the old key
+        servers.add(new OpenHABServer("192.168.1.0", 8443, true));
+        frame();
+        assertEquals(5, servers.size());
+
+        // Edited to the endpoint of another server: That one is removed, one row per key
+        notifications.clear();
+        OpenHABServer other = servers.get(2);
+        edited.setHost(other.getHost(), other.getPort(), other.isSecure());
+        assertSame(edited, servers.add(edited));
+        assertEquals("[removed 2+1]", notifications.toString());
+        assertEquals(4, servers.size());
+        assertEquals(-1, servers.indexOf(other));
+        assertSame(edited, servers.add(new OpenHABServer(other.getHost(), other.getPort(), other.isSecure())));
+        frame();
+        assertEquals("[removed 2+1, changed 1+1]", notifications.toString());
+    }
+}